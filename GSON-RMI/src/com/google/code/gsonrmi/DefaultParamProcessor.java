@@ -29,6 +29,13 @@ public class DefaultParamProcessor implements ParamProcessor {
 		return paramType.equals(Parameter.class) ? param : param.getValue(paramType, paramDeserializer);
 	}
 
+	@Override
+	public Type deserializationType(Type paramType, Annotation[] paramAnnotations) {
+		ParamType paramTypeAnnotation = findAnnotation(paramAnnotations, ParamType.class);
+		if (paramTypeAnnotation != null) paramType = paramTypeAnnotation.value();
+		return paramType.equals(Parameter.class) ? null : paramType;
+	}
+
 	@Override
 	public boolean isInjectedParam(Annotation[] paramAnnotations) {
 		for (Annotation paramAnnotation : paramAnnotations) {
@@ -1,9 +1,18 @@
 package com.google.code.gsonrmi;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.code.gsonrmi.annotations.RMI;
 import com.google.gson.JsonParseException;
@@ -12,6 +21,10 @@ public class Invoker {
 
 	private final ParamProcessor paramProcessor;
 	
+	// per class of target: the RMI methods by name, indexed by the number of params sent;
+	// built once per class, such that requests involve no reflection
+	private final ConcurrentMap<Class<?>, Map<String, Dispatch[]>> dispatchTables = new ConcurrentHashMap<Class<?>, Map<String, Dispatch[]>>();
+	
 	public Invoker(ParamProcessor paramProcessor) {
 		this.paramProcessor = paramProcessor;
 	}
@@ -21,17 +34,17 @@ public class Invoker {
 		response.id = request.id;
 		try {
 			Parameter[] params = request.params != null ? request.params : new Parameter[0];
-			Method m = findMethod(target, request.method, params);
-			if (m == null) throw new NoSuchMethodException(request.method);
+			Dispatch d = findDispatch(target.getClass(), request.method, params.length);
+			if (d == null) throw new NoSuchMethodException(request.method);
 			
-			Type[] paramTypes = m.getGenericParameterTypes();
-			Annotation[][] paramAnnotations = m.getParameterAnnotations();
+			Type[] paramTypes = d.paramTypes;
+			Annotation[][] paramAnnotations = d.paramAnnotations;
 			Object[] processedParams = new Object[paramTypes.length];
 			for (int i=0, j=0; i<processedParams.length; i++) {
-				if (paramProcessor.isInjectedParam(paramAnnotations[i])) processedParams[i] = paramProcessor.injectParam(paramTypes[i], paramAnnotations[i], context);
+				if (d.injected[i]) processedParams[i] = paramProcessor.injectParam(paramTypes[i], paramAnnotations[i], context);
 				else processedParams[i] = paramProcessor.processParam(params[j++], paramTypes[i], paramAnnotations[i], context);
 			}
-			Object returnValue = m.invoke(target, processedParams);
+			Object returnValue = d.invoke(target, processedParams);
 			response.result = returnValue != null ? new Parameter(returnValue) : null;
 		}
 		catch (JsonParseException e) {
@@ -55,25 +68,137 @@ public class Invoker {
 		return response;
 	}
 	
+	// the types the params of an RMI method may be deserialized to right away, in case the method is
+	// determined by its name alone, i.e. not overloaded by the number of params; null otherwise
+	public Type[] getParamTypes(Class<?> type, String method) {
+		Map<String, Dispatch[]> table = dispatchTables.get(type);
+		if (table == null) table = dispatchTables.computeIfAbsent(type, this::buildDispatchTable);
+		Dispatch[] byParamCount = table.get(method);
+		if (byParamCount == null) return null;
+		Dispatch found = null;
+		for (Dispatch d : byParamCount) {
+			if (d == null) continue;
+			if (found != null) return null;
+			found = d;
+		}
+		return found.deserializationTypes;
+	}
+	
 	public Method findMethod(Object target, String method, Parameter[] params) {
-		for (Method m : target.getClass().getMethods()) {
+		Dispatch d = findDispatch(target.getClass(), method, params.length);
+		return d != null ? d.method : null;
+	}
+	
+	private Dispatch findDispatch(Class<?> type, String method, int paramCount) {
+		Map<String, Dispatch[]> table = dispatchTables.get(type);
+		if (table == null) table = dispatchTables.computeIfAbsent(type, this::buildDispatchTable);
+		Dispatch[] byParamCount = table.get(method);
+		return byParamCount != null && paramCount < byParamCount.length ? byParamCount[paramCount] : null;
+	}
+	
+	private Map<String, Dispatch[]> buildDispatchTable(Class<?> type) {
+		Map<String, Dispatch[]> table = new HashMap<String, Dispatch[]>();
+		for (Method m : type.getMethods()) {
 			RMI rmi = m.getAnnotation(RMI.class);
 			if (rmi != null) {
 				String rmiName = rmi.value();
 				if (rmiName.isEmpty()) rmiName = m.getName();
-				if (rmiName.equals(method)) {
-					int countInjects = 0;
-					for (Annotation[] a : m.getParameterAnnotations()) if (paramProcessor.isInjectedParam(a)) countInjects++;
-					if (params.length + countInjects == m.getParameterTypes().length) return m;
+				Dispatch d = new Dispatch(m, paramProcessor);
+				Dispatch[] byParamCount = table.get(rmiName);
+				if (byParamCount == null || byParamCount.length <= d.paramCount) {
+					byParamCount = byParamCount == null ? new Dispatch[d.paramCount + 1] : Arrays.copyOf(byParamCount, d.paramCount + 1);
+					table.put(rmiName, byParamCount);
 				}
+				// like a linear search, the first method found wins
+				if (byParamCount[d.paramCount] == null) byParamCount[d.paramCount] = d;
+			}
+		}
+		return table;
+	}
+	
+	/**
+	 * An RMI method, along with everything needed to invoke it that can be
+	 * determined up front: its parameter types and annotations, which of its
+	 * parameters are injected, and a method handle taking the arguments as an array.
+	 */
+	private static class Dispatch {
+		
+		private static final List<Class<?>> PRIMITIVES = Arrays.<Class<?>>asList(byte.class, short.class, int.class, long.class, float.class, double.class);
+		private static final List<Class<?>> WRAPPERS = Arrays.<Class<?>>asList(Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class);
+		
+		final Method method;
+		final Type[] paramTypes;
+		final Annotation[][] paramAnnotations;
+		final boolean[] injected;
+		final int paramCount; // number of params sent, i.e. not injected
+		final Type[] deserializationTypes; // per param sent, or null where it needs to be kept as sent
+		private final Class<?>[] paramClasses;
+		private final MethodHandle handle; // (Object, Object[])Object, or null if the method is not accessible
+		
+		Dispatch(Method m, ParamProcessor paramProcessor) {
+			method = m;
+			paramTypes = m.getGenericParameterTypes();
+			paramAnnotations = m.getParameterAnnotations();
+			paramClasses = m.getParameterTypes();
+			injected = new boolean[paramTypes.length];
+			int count = 0;
+			for (int i=0; i<injected.length; i++) {
+				injected[i] = paramProcessor.isInjectedParam(paramAnnotations[i]);
+				if (!injected[i]) count++;
+			}
+			paramCount = count;
+			deserializationTypes = new Type[paramCount];
+			for (int i=0, j=0; i<injected.length; i++) {
+				if (!injected[i]) deserializationTypes[j++] = paramProcessor.deserializationType(paramTypes[i], paramAnnotations[i]);
+			}
+			
+			MethodHandle h;
+			try {
+				h = MethodHandles.publicLookup().unreflect(m)
+						.asType(MethodType.genericMethodType(paramClasses.length + 1))
+						.asSpreader(Object[].class, paramClasses.length);
+			}
+			catch (IllegalAccessException e) {
+				h = null;
 			}
+			handle = h;
+		}
+		
+		// invokes the method, failing like Method.invoke does
+		Object invoke(Object target, Object[] args) throws IllegalAccessException, InvocationTargetException {
+			if (handle == null) throw new IllegalAccessException(method.toString());
+			for (int i=0; i<args.length; i++) {
+				if (!isAssignable(paramClasses[i], args[i])) throw new IllegalArgumentException("argument type mismatch");
+			}
+			try {
+				return handle.invokeExact(target, args);
+			}
+			catch (Throwable t) {
+				throw new InvocationTargetException(t);
+			}
+		}
+		
+		// whether Method.invoke would accept the argument for a parameter of the given class
+		private static boolean isAssignable(Class<?> paramClass, Object arg) {
+			if (!paramClass.isPrimitive()) return arg == null || paramClass.isInstance(arg);
+			if (arg == null) return false;
+			Class<?> argClass = arg.getClass();
+			if (paramClass == boolean.class) return argClass == Boolean.class;
+			if (paramClass == char.class) return argClass == Character.class;
+			// widening primitive conversion, e.g. from int to long; char widens to int and beyond
+			int from = argClass == Character.class ? PRIMITIVES.indexOf(int.class) : WRAPPERS.indexOf(argClass);
+			int to = PRIMITIVES.indexOf(paramClass);
+			return from >= 0 && from <= to;
 		}
-		return null;
 	}
 	
 	public static interface ParamProcessor {
 		boolean isInjectedParam(Annotation[] paramAnnotations);
 		Object injectParam(Type paramType, Annotation[] paramAnnotations, Object context) throws ParamValidationException;
 		Object processParam(Parameter param, Type paramType, Annotation[] paramAnnotations, Object context) throws ParamValidationException;
+		// the type a param may be deserialized to right away, as processParam would, or null if it needs to be kept as sent
+		default Type deserializationType(Type paramType, Annotation[] paramAnnotations) {
+			return null;
+		}
 	}
 }
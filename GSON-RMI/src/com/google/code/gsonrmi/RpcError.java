@@ -9,6 +9,8 @@ public class RpcError {
 	public static final RpcError INTERNAL_ERROR = new RpcError(-32603, "Internal error");
 	public static final RpcError INVOCATION_EXCEPTION = new RpcError(-32000, "Invocation exception");
 	public static final RpcError PARAM_VALIDATION_FAILED = new RpcError(-32001, "Parameter validation failed");
+	public static final RpcError DEADLINE_EXCEEDED = new RpcError(-32002, "Deadline exceeded");
+	public static final RpcError SERVER_OVERLOADED = new RpcError(-32003, "Server overloaded");
 
 	public final int code;
 	public final String message;
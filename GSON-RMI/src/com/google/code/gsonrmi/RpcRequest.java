@@ -6,4 +6,8 @@ public class RpcRequest {
 	public String method;
 	public Parameter[] params;
 	public Parameter id;
+	public String idempotencyKey;
+	public Long timeout; // milliseconds the caller is still waiting for the response when sending, or null
+	public transient boolean malformed; // true if a param could not be deserialized while receiving the request
+	public transient boolean invalid; // true if what has been received is not a valid request object
 }
@@ -1,5 +1,7 @@
 package com.google.code.gsonrmi.server;
 
+import java.lang.reflect.Type;
+
 import com.google.gson.*;
 import com.google.code.gsonrmi.*;
 
@@ -13,6 +15,10 @@ public class RpcTarget {
 		this.obj = obj;
 	}
 	
+	public Type[] getParamTypes(String method) {
+		return invoker.getParamTypes(obj.getClass(), method);
+	}
+	
 	public RpcResponse doInvoke(RpcRequest request) {
 //		//sequentialize access to the object
 //		synchronized (obj) {
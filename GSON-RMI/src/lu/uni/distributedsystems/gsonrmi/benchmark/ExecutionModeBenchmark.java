@@ -0,0 +1,185 @@
+package lu.uni.distributedsystems.gsonrmi.benchmark;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.code.gsonrmi.Parameter;
+import com.google.code.gsonrmi.annotations.RMI;
+import com.google.code.gsonrmi.serializer.ExceptionSerializer;
+import com.google.code.gsonrmi.serializer.ParameterSerializer;
+import com.google.code.gsonrmi.server.RpcTarget;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonStreamParser;
+
+import lu.uni.distributedsystems.gsonrmi.server.AdmissionControl;
+import lu.uni.distributedsystems.gsonrmi.server.ExecutionMode;
+import lu.uni.distributedsystems.gsonrmi.server.RpcSocketListener;
+
+/**
+ * Compares the execution modes of RpcSocketListener. For each mode, a server
+ * is started and as many client connections as requested are opened and kept
+ * open, reporting how many the server accepted. Then, requests blocking for a
+ * while on the server side are sent via all of them, reporting the latency
+ * percentiles.
+ * <p>
+ * Usage: ExecutionModeBenchmark [connections] [requests per connection] [server-side blocking time in ms]
+ * <p>
+ * Note that client and server run in the same process; raise the limit of
+ * open files (ulimit -n) to at least twice the number of connections.
+ */
+public class ExecutionModeBenchmark {
+
+	// number of client threads sending requests
+	private static final int CLIENT_THREADS = 64;
+
+	/**
+	 * Service invoked by the benchmark.
+	 */
+	public static class BenchmarkService {
+
+		@RMI
+		public int work(int millis) throws InterruptedException {
+			Thread.sleep(millis);
+			return millis;
+		}
+
+	}
+
+	/**
+	 * A client connection, using plain blocking sockets.
+	 */
+	private static class Client {
+
+		private Socket socket;
+		private Writer out;
+		private JsonStreamParser in;
+		private long nextID;
+
+		Client(int port, String partnerID) throws IOException {
+			socket = new Socket("localhost", port);
+			out = new OutputStreamWriter(socket.getOutputStream(), "utf-8");
+			in = new JsonStreamParser(new InputStreamReader(socket.getInputStream(), "utf-8"));
+			out.write("{\"partnerID\":\"" + partnerID + "\"}");
+			out.flush();
+			if (!in.hasNext())
+				throw new IOException("connection closed during handshake");
+			in.next();
+		}
+
+		long call(int millis) throws IOException {
+			long start = System.nanoTime();
+			out.write("{\"jsonrpc\":\"2.0\",\"method\":\"work\",\"params\":[" + millis + "],\"id\":" + nextID++ + "}");
+			out.flush();
+			if (!in.hasNext())
+				throw new IOException("connection closed");
+			in.next();
+			return System.nanoTime() - start;
+		}
+
+		void close() {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+			}
+		}
+
+	}
+
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int millis = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+		// the server logs every connection and request otherwise
+		Logger.getLogger("lu.uni").setLevel(Level.WARNING);
+
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			if (mode == ExecutionMode.VIRTUAL_THREAD && !ExecutionMode.isVirtualThreadSupported()) {
+				System.out.println(mode + ": not supported by this Java runtime (" + System.getProperty("java.version") + ")");
+				continue;
+			}
+			run(mode, connections, requests, millis);
+		}
+	}
+
+	private static void run(ExecutionMode mode, int connections, int requests, int millis) throws Exception {
+		Gson gson = new GsonBuilder()
+				.registerTypeAdapter(Exception.class, new ExceptionSerializer())
+				.registerTypeAdapter(Parameter.class, new ParameterSerializer())
+				.create();
+		RpcSocketListener listener = new RpcSocketListener(0, new RpcTarget(new BenchmarkService(), gson), gson, null, mode);
+		// measure the capacity of the execution mode rather than the default limits
+		listener.setAdmissionControl(new AdmissionControl(0, 0));
+		listener.start();
+
+		// capacity: open connections until the requested number is reached or the server gives up
+		List<Client> clients = new ArrayList<Client>(connections);
+		long start = System.nanoTime();
+		try {
+			while (clients.size() < connections)
+				clients.add(new Client(listener.getLocalPort(), "benchmark-" + clients.size()));
+		}
+		catch (IOException e) {
+			System.out.println(mode + ": connection " + (clients.size() + 1) + " failed: " + e);
+		}
+		long connectMillis = (System.nanoTime() - start) / 1000000;
+
+		// latency: send requests via all connections, CLIENT_THREADS connections at a time
+		ExecutorService clientThreads = Executors.newFixedThreadPool(CLIENT_THREADS);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+		start = System.nanoTime();
+		for (Client client : clients) {
+			results.add(clientThreads.submit(() -> {
+				long[] latencies = new long[requests];
+				for (int i = 0; i < requests; i++)
+					latencies[i] = client.call(millis);
+				return latencies;
+			}));
+		}
+
+		long[] latencies = new long[clients.size() * requests];
+		int n = 0;
+		int failed = 0;
+		for (Future<long[]> result : results) {
+			try {
+				for (long latency : result.get())
+					latencies[n++] = latency;
+			}
+			catch (Exception e) {
+				failed++;
+			}
+		}
+		long runMillis = (System.nanoTime() - start) / 1000000;
+		clientThreads.shutdown();
+
+		Arrays.sort(latencies, 0, n);
+		System.out.println(mode + ": " + clients.size() + " connections opened in " + connectMillis + " ms, "
+				+ n + " requests in " + runMillis + " ms, " + failed + " connections failed, "
+				+ "latency p50: " + percentile(latencies, n, 0.50) + " us, p99: " + percentile(latencies, n, 0.99)
+				+ " us, max: " + (n > 0 ? latencies[n - 1] / 1000 : 0) + " us");
+
+		for (Client client : clients)
+			client.close();
+		listener.shutdown();
+	}
+
+	private static long percentile(long[] sorted, int n, double p) {
+		if (n == 0)
+			return 0;
+		return sorted[Math.min(n - 1, (int) Math.ceil(p * n) - 1)] / 1000;
+	}
+
+}
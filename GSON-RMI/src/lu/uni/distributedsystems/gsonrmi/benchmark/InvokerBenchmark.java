@@ -0,0 +1,163 @@
+package lu.uni.distributedsystems.gsonrmi.benchmark;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+
+import com.google.code.gsonrmi.DefaultParamProcessor;
+import com.google.code.gsonrmi.Invoker;
+import com.google.code.gsonrmi.Parameter;
+import com.google.code.gsonrmi.RpcRequest;
+import com.google.code.gsonrmi.RpcResponse;
+import com.google.code.gsonrmi.annotations.RMI;
+import com.google.gson.Gson;
+
+/**
+ * Measures the cost of dispatching a request to an RMI method, excluding
+ * (de)serialization: the Invoker, looking the method up in its dispatch
+ * table and calling it via a method handle, versus looking the method up by
+ * reflection on every request and calling it via Method.invoke. Parameters
+ * are passed as values, such that they need not be deserialized.
+ * <p>
+ * Usage: InvokerBenchmark [iterations per round] [rounds]
+ */
+public class InvokerBenchmark {
+
+	/**
+	 * Service invoked by the benchmark, with about as many methods as a gambler or bookie.
+	 */
+	public static class BenchmarkService {
+
+		@RMI
+		public String sayHello(String name) {
+			return name;
+		}
+
+		@RMI
+		public String startBetPhase(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
+			return bookieID;
+		}
+
+		@RMI
+		public String setOdds(String bookieID, int matchID, String team, float odds) {
+			return team;
+		}
+
+		@RMI
+		public String endBetPhase(String bookieID, int matchID, String winningTeam, float payout) {
+			return winningTeam;
+		}
+
+		@RMI
+		public int add(int a, int b) {
+			return a + b;
+		}
+
+		@RMI("add")
+		public int add(int a, int b, int c) {
+			return a + b + c;
+		}
+
+		public void notExposed() {
+		}
+
+	}
+
+	// the requests sent, cycling through the methods
+	private static final RpcRequest[] REQUESTS = {
+			request("sayHello", "bookie"),
+			request("startBetPhase", "B1", 1, "A", 1.5f, "B", 2.5f, 100),
+			request("setOdds", "B1", 1, "A", 1.7f),
+			request("endBetPhase", "B1", 1, "A", 17.0f),
+			request("add", 1, 2),
+			request("add", 1, 2, 3) };
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		BenchmarkService service = new BenchmarkService();
+		DefaultParamProcessor paramProcessor = new DefaultParamProcessor(new Gson());
+		Invoker invoker = new Invoker(paramProcessor);
+
+		// the first rounds warm up the JIT compiler
+		for (int round = 1; round <= rounds; round++) {
+			long start = System.nanoTime();
+			long checksum = 0;
+			for (int i = 0; i < iterations; i++)
+				checksum += result(invoker.doInvoke(REQUESTS[i % REQUESTS.length], service, null));
+			long tableNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long reflectiveChecksum = 0;
+			for (int i = 0; i < iterations; i++)
+				reflectiveChecksum += result(invokeReflectively(paramProcessor, REQUESTS[i % REQUESTS.length], service));
+			long reflectiveNanos = System.nanoTime() - start;
+
+			if (checksum != reflectiveChecksum)
+				throw new IllegalStateException("results differ: " + checksum + " vs " + reflectiveChecksum);
+			System.out.println("round " + round + ": dispatch table: " + tableNanos / iterations + " ns/request, reflection: "
+					+ reflectiveNanos / iterations + " ns/request");
+		}
+	}
+
+	private static RpcRequest request(String method, Object... params) {
+		RpcRequest request = new RpcRequest();
+		request.method = method;
+		request.params = new Parameter[params.length];
+		for (int i = 0; i < params.length; i++)
+			request.params[i] = new Parameter(params[i]);
+		return request;
+	}
+
+	// a value derived from the response, such that the calls cannot be optimized away
+	private static long result(RpcResponse response) {
+		if (response.error != null)
+			throw new IllegalStateException("request failed: " + response.error);
+		return response.result.getValue(Object.class, null).hashCode();
+	}
+
+	/**
+	 * Dispatches a request the way it is done without a dispatch table: the
+	 * methods of the target and their annotations are looked up by reflection,
+	 * and the method found is called via Method.invoke.
+	 */
+	private static RpcResponse invokeReflectively(Invoker.ParamProcessor paramProcessor, RpcRequest request, Object target) {
+		RpcResponse response = new RpcResponse();
+		response.id = request.id;
+		try {
+			for (Method m : target.getClass().getMethods()) {
+				RMI rmi = m.getAnnotation(RMI.class);
+				if (rmi == null)
+					continue;
+				String rmiName = rmi.value().isEmpty() ? m.getName() : rmi.value();
+				if (!rmiName.equals(request.method))
+					continue;
+				int countInjects = 0;
+				for (Annotation[] a : m.getParameterAnnotations())
+					if (paramProcessor.isInjectedParam(a))
+						countInjects++;
+				if (request.params.length + countInjects != m.getParameterTypes().length)
+					continue;
+
+				Type[] paramTypes = m.getGenericParameterTypes();
+				Annotation[][] paramAnnotations = m.getParameterAnnotations();
+				Object[] processedParams = new Object[paramTypes.length];
+				for (int i = 0, j = 0; i < processedParams.length; i++) {
+					if (paramProcessor.isInjectedParam(paramAnnotations[i]))
+						processedParams[i] = paramProcessor.injectParam(paramTypes[i], paramAnnotations[i], null);
+					else
+						processedParams[i] = paramProcessor.processParam(request.params[j++], paramTypes[i], paramAnnotations[i], null);
+				}
+				Object returnValue = m.invoke(target, processedParams);
+				response.result = returnValue != null ? new Parameter(returnValue) : null;
+				return response;
+			}
+			throw new NoSuchMethodException(request.method);
+		}
+		catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
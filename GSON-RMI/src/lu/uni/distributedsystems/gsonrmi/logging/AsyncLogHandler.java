@@ -0,0 +1,165 @@
+package lu.uni.distributedsystems.gsonrmi.logging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A logging handler decoupling the logging threads from the (slow) output of
+ * log records, e.g. to the console. Records are put into a bounded ring
+ * buffer and published to the target handler by a background (daemon) thread.
+ * Since records are formatted by the target handler, i.e. by the background
+ * thread, parameters passed along with a message, such as a
+ * <code>LazyJson</code>, are turned into strings only once a record is
+ * actually written; they must not be modified after having been logged.
+ * <p>
+ * In case the ring buffer is full, records below level WARNING are dropped
+ * rather than blocking the logging thread; the number of dropped records is
+ * reported once there is room again. Records of level WARNING and above are
+ * never dropped.
+ * <p>
+ * Caller information (source class and method) is not inferred, since this
+ * requires walking the stack of the logging thread.
+ */
+public class AsyncLogHandler extends Handler {
+
+	// default number of records buffered
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private Handler target;
+	private BlockingQueue<LogRecord> ring;
+	private AtomicLong dropped = new AtomicLong();
+	private Thread writer;
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a handler publishing records to the given handler, buffering
+	 * up to DEFAULT_CAPACITY records.
+	 *
+	 * @param target the handler to publish records to, e.g. a ConsoleHandler
+	 */
+	public AsyncLogHandler(Handler target) {
+		this(target, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a handler publishing records to the given handler.
+	 *
+	 * @param target   the handler to publish records to, e.g. a ConsoleHandler
+	 * @param capacity maximum number of records buffered
+	 */
+	public AsyncLogHandler(Handler target, int capacity) {
+		this.target = target;
+		ring = new ArrayBlockingQueue<LogRecord>(capacity);
+		writer = new Thread(this::write, "async-log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void setFormatter(Formatter formatter) {
+		target.setFormatter(formatter);
+	}
+
+	@Override
+	public Formatter getFormatter() {
+		return target.getFormatter();
+	}
+
+	/**
+	 * Buffers a record, unless it is filtered out by the level or filter of
+	 * this handler. Neither formats the record nor waits for it to be written.
+	 */
+	@Override
+	public void publish(LogRecord record) {
+		if (closed || !isLoggable(record))
+			return;
+
+		if (ring.offer(record))
+			return;
+
+		if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+			dropped.incrementAndGet();
+			return;
+		}
+		try {
+			ring.put(record);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of records dropped, since the ring buffer was full,
+	 * that have not been reported yet.
+	 *
+	 * @return the number of dropped records
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Flushes the target handler; records still buffered are written later on.
+	 */
+	@Override
+	public void flush() {
+		target.flush();
+	}
+
+	/**
+	 * Writes all records still buffered, then closes the target handler.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		writer.interrupt();
+		try {
+			writer.join(1000);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// the writer might not have drained the buffer in time
+		drain();
+		target.close();
+	}
+
+	// main loop of the writer thread
+	private void write() {
+		while (!closed) {
+			try {
+				LogRecord record = ring.take();
+				target.publish(record);
+				drain();
+				target.flush();
+			}
+			catch (InterruptedException e) {
+				// closing
+			}
+			catch (RuntimeException e) {
+				reportError("problem writing log record", e, ErrorManager.WRITE_FAILURE);
+			}
+		}
+	}
+
+	// writes all records buffered, reporting dropped ones first
+	private synchronized void drain() {
+		long n = dropped.getAndSet(0);
+		if (n > 0) {
+			LogRecord record = new LogRecord(Level.WARNING, n + " log records dropped, since the log buffer was full");
+			target.publish(record);
+		}
+
+		LogRecord record;
+		while ((record = ring.poll()) != null)
+			target.publish(record);
+	}
+
+}
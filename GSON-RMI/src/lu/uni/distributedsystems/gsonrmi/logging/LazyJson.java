@@ -0,0 +1,34 @@
+package lu.uni.distributedsystems.gsonrmi.logging;
+
+import com.google.gson.Gson;
+
+/**
+ * Wraps an object to be logged as JSON, serializing it only once the log
+ * message is formatted, i.e. not at all in case the message is discarded.
+ * Pass it as a parameter of the log message, e.g.
+ * <code>logger.log(Level.INFO, "handling request: {0}", new LazyJson(gson, request))</code>.
+ * The object must not be modified after having been logged, since it might
+ * be serialized by another thread later on.
+ */
+public class LazyJson {
+
+	private Gson gson;
+	private Object object;
+
+	/**
+	 * Wraps an object.
+	 *
+	 * @param gson		the Gson object to serialize with
+	 * @param object	the object to log
+	 */
+	public LazyJson(Gson gson, Object object) {
+		this.gson = gson;
+		this.object = object;
+	}
+
+	@Override
+	public String toString() {
+		return gson.toJson(object);
+	}
+
+}
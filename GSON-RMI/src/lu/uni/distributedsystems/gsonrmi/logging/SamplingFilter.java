@@ -0,0 +1,62 @@
+package lu.uni.distributedsystems.gsonrmi.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Filter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A logging filter passing only one out of every n records below a given
+ * level, e.g. to keep tracing every request and response switched on without
+ * paying for formatting and writing each of them. Records at or above the
+ * level, such as warnings, always pass.
+ * <p>
+ * Note that a filter attached to a logger applies to that logger only, not
+ * to its children; attach it to the handler instead.
+ */
+public class SamplingFilter implements Filter {
+
+	private long rate;
+	private Level threshold;
+	private AtomicLong counter = new AtomicLong();
+
+	/**
+	 * Constructs a filter sampling records below level WARNING.
+	 *
+	 * @param rate	one out of how many records to pass; 1 passes all records
+	 */
+	public SamplingFilter(long rate) {
+		this(rate, Level.WARNING);
+	}
+
+	/**
+	 * Constructs a filter sampling records below the given level.
+	 *
+	 * @param rate		one out of how many records to pass; 1 passes all records
+	 * @param threshold	level from which on all records pass
+	 */
+	public SamplingFilter(long rate, Level threshold) {
+		this.rate = Math.max(1, rate);
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns a filter sampling records below level WARNING at the rate given
+	 * by the system property gsonrmi.log.sampleRate, or null in case all
+	 * records shall pass.
+	 *
+	 * @return	the filter, or null
+	 */
+	public static SamplingFilter fromSystemProperty() {
+		long rate = Long.getLong("gsonrmi.log.sampleRate", 1);
+		return rate > 1 ? new SamplingFilter(rate) : null;
+	}
+
+	@Override
+	public boolean isLoggable(LogRecord record) {
+		if (record.getLevel().intValue() >= threshold.intValue())
+			return true;
+		return counter.getAndIncrement() % rate == 0;
+	}
+
+}
@@ -0,0 +1,138 @@
+package lu.uni.distributedsystems.gsonrmi.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits on the number of concurrent connections and concurrent requests of
+ * a JSON-RPC server. Connections and requests exceeding a limit are rejected
+ * right away by a JSON-RPC error (SERVER_OVERLOADED), rather than being
+ * queued, such that a storm of (re)connecting clients does not degrade the
+ * service of the clients already being served. Current usage, peaks and
+ * rejections are counted, e.g. for monitoring.
+ */
+public class AdmissionControl {
+
+	private final int maxConnections; // 0 if unlimited
+	private final int maxRequests;    // 0 if unlimited
+
+	private AtomicInteger connections = new AtomicInteger();
+	private AtomicInteger requests = new AtomicInteger();
+	private AtomicInteger peakConnections = new AtomicInteger();
+	private AtomicInteger peakRequests = new AtomicInteger();
+	private LongAdder rejectedConnections = new LongAdder();
+	private LongAdder rejectedRequests = new LongAdder();
+
+	/**
+	 * Constructs admission control with the given limits.
+	 *
+	 * @param maxConnections	maximum number of concurrent connections, or 0 if unlimited
+	 * @param maxRequests		maximum number of requests processed concurrently, or 0 if unlimited
+	 */
+	public AdmissionControl(int maxConnections, int maxRequests) {
+		this.maxConnections = Math.max(0, maxConnections);
+		this.maxRequests = Math.max(0, maxRequests);
+	}
+
+	/**
+	 * Constructs admission control with the limits given by the system properties
+	 * gsonrmi.maxConnections (1000 by default) and gsonrmi.maxRequests
+	 * (1000 by default); 0 means unlimited.
+	 *
+	 * @return	the admission control
+	 */
+	public static AdmissionControl fromSystemProperties() {
+		return new AdmissionControl(Integer.getInteger("gsonrmi.maxConnections", 1000),
+				Integer.getInteger("gsonrmi.maxRequests", 1000));
+	}
+
+	/**
+	 * Admits a new connection, unless the limit has been reached.
+	 *
+	 * @return	true if the connection may be served; it must be released later on
+	 */
+	public boolean tryAcquireConnection() {
+		return tryAcquire(connections, maxConnections, peakConnections, rejectedConnections);
+	}
+
+	/**
+	 * Releases a connection admitted before, once it has been closed.
+	 */
+	public void releaseConnection() {
+		connections.decrementAndGet();
+	}
+
+	/**
+	 * Admits a request for processing, unless the limit has been reached.
+	 *
+	 * @return	true if the request may be processed; it must be released later on
+	 */
+	public boolean tryAcquireRequest() {
+		return tryAcquire(requests, maxRequests, peakRequests, rejectedRequests);
+	}
+
+	/**
+	 * Releases a request admitted before, once it has been processed.
+	 */
+	public void releaseRequest() {
+		requests.decrementAndGet();
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public int getMaxRequests() {
+		return maxRequests;
+	}
+
+	public int getConnections() {
+		return connections.get();
+	}
+
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public int getPeakConnections() {
+		return peakConnections.get();
+	}
+
+	public int getPeakRequests() {
+		return peakRequests.get();
+	}
+
+	public long getRejectedConnections() {
+		return rejectedConnections.sum();
+	}
+
+	public long getRejectedRequests() {
+		return rejectedRequests.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "connections: " + getConnections() + "/" + limit(maxConnections) + " (peak " + getPeakConnections()
+				+ ", rejected " + getRejectedConnections() + "), requests: " + getRequests() + "/" + limit(maxRequests)
+				+ " (peak " + getPeakRequests() + ", rejected " + getRejectedRequests() + ")";
+	}
+
+	private static String limit(int max) {
+		return max > 0 ? Integer.toString(max) : "unlimited";
+	}
+
+	private static boolean tryAcquire(AtomicInteger counter, int max, AtomicInteger peak, LongAdder rejected) {
+		while (true) {
+			int n = counter.get();
+			if (max > 0 && n >= max) {
+				rejected.increment();
+				return false;
+			}
+			if (counter.compareAndSet(n, n + 1)) {
+				peak.accumulateAndGet(n + 1, Math::max);
+				return true;
+			}
+		}
+	}
+
+}
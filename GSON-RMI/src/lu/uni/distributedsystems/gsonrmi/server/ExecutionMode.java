@@ -0,0 +1,75 @@
+package lu.uni.distributedsystems.gsonrmi.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Enumeration of the ways a JSON-RPC server runs its connection handlers.
+ * Either way, each connection is handled by a thread of its own, executing
+ * blocking code; the modes differ in the kind of thread.
+ */
+public enum ExecutionMode {
+	/**
+	 * Run each connection handler on a platform (daemon) thread. Each platform
+	 * thread occupies a native thread including its stack, which limits the
+	 * number of connections to a few thousand.
+	 */
+	PLATFORM_THREAD,
+
+	/**
+	 * Run each connection handler on a virtual thread, which is mounted on a
+	 * native carrier thread only while not blocked. Requires a Java runtime
+	 * supporting virtual threads, i.e. Java 21 or later.
+	 */
+	VIRTUAL_THREAD;
+
+	/**
+	 * Returns the execution mode selected by the system property
+	 * gsonrmi.executionMode, i.e. "platform" or "virtual".
+	 *
+	 * @return	the selected mode, PLATFORM_THREAD by default
+	 */
+	public static ExecutionMode fromSystemProperty() {
+		return "virtual".equalsIgnoreCase(System.getProperty("gsonrmi.executionMode")) ? VIRTUAL_THREAD : PLATFORM_THREAD;
+	}
+
+	/**
+	 * Returns whether virtual threads are supported by the Java runtime.
+	 *
+	 * @return	true if VIRTUAL_THREAD may be used
+	 */
+	public static boolean isVirtualThreadSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}
+		catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates an executor starting a new thread of this mode for each task.
+	 *
+	 * @return	a new executor, to be shut down by the caller
+	 * @throws UnsupportedOperationException	if the runtime does not support this mode
+	 */
+	public ExecutorService newExecutor() {
+		if (this == PLATFORM_THREAD) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		// looked up reflectively, since this library is compiled for Java 8
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("virtual threads are not supported by this Java runtime", e);
+		}
+	}
+
+}
@@ -0,0 +1,273 @@
+package lu.uni.distributedsystems.gsonrmi.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * Compression of JSON-RPC frames, negotiated per connection during the
+ * PartnerID handshake: the client offers the capability DEFLATE, the server
+ * accepts it by listing it in its reply. Once negotiated, either side may
+ * send any frame larger than the threshold as
+ * <code>{"deflate":"&lt;base64&gt;"}</code>, holding the frame compressed with
+ * deflate. Smaller frames are sent as they are.
+ * <p>
+ * An application may compress with a preset dictionary of the method names
+ * and field keys frequently found in its frames. The dictionary is part of
+ * the negotiation: its capability is DEFLATE followed by the id of the
+ * dictionary, i.e. its Adler-32 checksum as in zlib's DICTID, e.g.
+ * <code>"deflate:1a2b3c4d"</code>. The server accepts it only if it has been
+ * given the very same dictionary, and falls back to plain DEFLATE otherwise,
+ * in case that has been offered as well. The dictionary is thus kept per
+ * connection; peers with different dictionaries, or none, still understand
+ * each other.
+ * <p>
+ * A compressed frame inflating to more than the maximum frame size is
+ * rejected as malformed, such that a small frame cannot exhaust the memory
+ * of the receiver.
+ * <p>
+ * Each frame is compressed on its own, such that frames may be compressed
+ * by any thread and in any order. Since a compressed frame is a JSON object
+ * itself, framing is not affected.
+ */
+public final class FrameCompression {
+
+	/**
+	 * Name of the capability, as exchanged during the handshake.
+	 */
+	public static final String DEFLATE = "deflate";
+
+	/**
+	 * Size in bytes from which on frames are compressed, as given by the system
+	 * property gsonrmi.compressionThreshold.
+	 */
+	public static final int THRESHOLD = Integer.getInteger("gsonrmi.compressionThreshold", 1024);
+
+	/**
+	 * Size in bytes a compressed frame may inflate to at most, as given by the
+	 * system property gsonrmi.maxInflatedFrameSize.
+	 */
+	public static final int MAX_INFLATED_SIZE = Integer.getInteger("gsonrmi.maxInflatedFrameSize", 16 * 1024 * 1024);
+
+	/**
+	 * Compression without a preset dictionary, i.e. with the capability DEFLATE.
+	 */
+	public static final FrameCompression PLAIN = new FrameCompression(null);
+
+	// deflaters and inflaters hold native memory, hence they are reused per thread
+	private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+	private static final byte[] PREFIX = ("{\"" + DEFLATE + "\":\"").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] SUFFIX = "\"}".getBytes(StandardCharsets.UTF_8);
+
+	private final byte[] dictionary; // preset dictionary, or null if there is none
+	private final long dictionaryID; // Adler-32 checksum of the dictionary
+	private final String capability; // capability to offer, respectively accept, in the handshake
+
+	/**
+	 * Constructs the compression of frames with the given preset dictionary,
+	 * i.e. strings frequently found in the frames of the application, the
+	 * most frequent ones last.
+	 *
+	 * @param dictionary	the dictionary, or null to compress without one
+	 */
+	public FrameCompression(byte[] dictionary) {
+		this.dictionary = dictionary != null ? dictionary.clone() : null;
+		if (dictionary != null) {
+			Adler32 adler = new Adler32();
+			adler.update(dictionary);
+			dictionaryID = adler.getValue();
+			capability = DEFLATE + ":" + String.format("%08x", dictionaryID);
+		}
+		else {
+			dictionaryID = 0;
+			capability = DEFLATE;
+		}
+	}
+
+	/**
+	 * Returns the capability offered, respectively accepted, in the handshake
+	 * for this compression: DEFLATE, followed by the id of the dictionary if
+	 * there is one.
+	 *
+	 * @return	the capability
+	 */
+	public String getCapability() {
+		return capability;
+	}
+
+	/**
+	 * Returns whether this compression uses a preset dictionary.
+	 *
+	 * @return	true unless this is plain DEFLATE
+	 */
+	public boolean hasDictionary() {
+		return dictionary != null;
+	}
+
+	/**
+	 * Picks the compression to use with a partner: the first one of the given
+	 * compressions whose capability the partner offered, i.e. with the very
+	 * same dictionary, otherwise plain DEFLATE if offered.
+	 *
+	 * @param partner		the PartnerID received in the handshake
+	 * @param compressions	the compressions with a dictionary this side accepts
+	 * @return				the compression to use, or null if frames are not
+	 * 						to be compressed
+	 */
+	public static FrameCompression negotiate(PartnerID partner, List<FrameCompression> compressions) {
+		if (!isSupported())
+			return null;
+		for (FrameCompression compression : compressions) {
+			if (partner.hasCapability(compression.getCapability()))
+				return compression;
+		}
+		return partner.hasCapability(DEFLATE) ? PLAIN : null;
+	}
+
+	/**
+	 * Returns whether this side offers or accepts compression, i.e. unless the
+	 * system property gsonrmi.compression is set to false.
+	 *
+	 * @return	true if compression shall be negotiated
+	 */
+	public static boolean isSupported() {
+		return !"false".equalsIgnoreCase(System.getProperty("gsonrmi.compression"));
+	}
+
+	/**
+	 * Compresses a frame, in case it is larger than the threshold.
+	 *
+	 * @param json		the frame, encoded as UTF-8
+	 * @param length	number of bytes of the frame
+	 * @return			the compressed frame, encoded as UTF-8, or null in case the
+	 * 					frame is not larger than the threshold or does not shrink
+	 */
+	public byte[] compress(byte[] json, int length) {
+		if (length <= THRESHOLD)
+			return null;
+
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		if (dictionary != null)
+			deflater.setDictionary(dictionary);
+		deflater.setInput(json, 0, length);
+		deflater.finish();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4);
+		byte[] chunk = new byte[4096];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(chunk);
+			compressed.write(chunk, 0, n);
+		}
+
+		byte[] base64 = Base64.getEncoder().encode(compressed.toByteArray());
+		if (PREFIX.length + base64.length + SUFFIX.length >= length)
+			return null;
+
+		byte[] frame = new byte[PREFIX.length + base64.length + SUFFIX.length];
+		System.arraycopy(PREFIX, 0, frame, 0, PREFIX.length);
+		System.arraycopy(base64, 0, frame, PREFIX.length, base64.length);
+		System.arraycopy(SUFFIX, 0, frame, PREFIX.length + base64.length, SUFFIX.length);
+		return frame;
+	}
+
+	/**
+	 * Returns whether a frame received is a compressed one.
+	 *
+	 * @param frame	the frame
+	 * @return		true if the frame needs to be decompressed
+	 */
+	public static boolean isCompressed(JsonElement frame) {
+		return frame.isJsonObject() && ((JsonObject) frame).has(DEFLATE);
+	}
+
+	/**
+	 * Returns whether a frame received is a compressed one.
+	 *
+	 * @param frame	the frame
+	 * @return		true if the frame needs to be decompressed
+	 */
+	public static boolean isCompressed(String frame) {
+		return frame.startsWith("{\"" + DEFLATE + "\":");
+	}
+
+	/**
+	 * Decompresses a compressed frame.
+	 *
+	 * @param frame	the compressed frame
+	 * @return		the original frame
+	 * @throws JsonParseException	if the frame cannot be decompressed
+	 */
+	public String decompress(JsonElement frame) {
+		String payload;
+		try {
+			payload = ((JsonObject) frame).get(DEFLATE).getAsString();
+		}
+		catch (ClassCastException | IllegalStateException e) {
+			throw new JsonParseException("malformed compressed frame", e);
+		}
+		return decompressPayload(payload);
+	}
+
+	/**
+	 * Decompresses the payload of a compressed frame, i.e. the value of its
+	 * DEFLATE field, e.g. in case the frame is read as a stream.
+	 *
+	 * @param payload	the compressed frame, encoded as base64
+	 * @return			the original frame
+	 * @throws JsonParseException	if the payload cannot be decompressed, e.g.
+	 * 								since it requires another dictionary, or
+	 * 								inflates to more than the maximum size
+	 */
+	public String decompressPayload(String payload) {
+		byte[] compressed;
+		try {
+			compressed = Base64.getDecoder().decode(payload);
+		}
+		catch (IllegalArgumentException e) {
+			throw new JsonParseException("malformed compressed frame", e);
+		}
+
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(compressed);
+
+		ByteArrayOutputStream json = new ByteArrayOutputStream((int) Math.min((long) compressed.length * 4, MAX_INFLATED_SIZE));
+		byte[] chunk = new byte[4096];
+		try {
+			while (!inflater.finished()) {
+				int n = inflater.inflate(chunk);
+				if (n == 0) {
+					if (inflater.needsDictionary()) {
+						// the id of the dictionary required is given by the frame; getAdler()
+						// sign-extends it on some JDKs, hence only the low 32 bits are compared
+						if (dictionary == null || (inflater.getAdler() & 0xffffffffL) != dictionaryID)
+							throw new JsonParseException("compressed frame requires an unknown dictionary");
+						inflater.setDictionary(dictionary);
+					}
+					else if (inflater.needsInput())
+						throw new JsonParseException("truncated compressed frame");
+				}
+				if (json.size() + n > MAX_INFLATED_SIZE)
+					throw new JsonParseException("compressed frame inflates to more than " + MAX_INFLATED_SIZE + " bytes");
+				json.write(chunk, 0, n);
+			}
+		}
+		catch (DataFormatException | IllegalArgumentException e) {
+			throw new JsonParseException("malformed compressed frame", e);
+		}
+		return new String(json.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
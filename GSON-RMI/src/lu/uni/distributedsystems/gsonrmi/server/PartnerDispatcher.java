@@ -0,0 +1,124 @@
+package lu.uni.distributedsystems.gsonrmi.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches the requests of a JSON-RPC server by partner, as given by the
+ * partnerID of the handshake: the requests of a partner are executed one
+ * after the other, in the order received, even if the partner sends them
+ * via several connections; the requests of different partners are executed
+ * in parallel, on a shared pool of threads. The RpcTarget thus needs no
+ * synchronization to keep the requests of a partner in order, yet needs to
+ * be thread-safe with respect to different partners.
+ * <p>
+ * Each partner gets a SerialExecutor, which is kept as long as the partner
+ * is connected via at least one connection, or requests of the partner are
+ * pending. A partner reconnecting later on gets a new one.
+ */
+public class PartnerDispatcher {
+
+	private final Executor pool;
+	private final ConcurrentMap<String, Partner> partners = new ConcurrentHashMap<String, Partner>();
+
+	/**
+	 * Constructs a dispatcher executing requests on a pool of the given number
+	 * of (daemon) threads, e.g. the number of cores.
+	 *
+	 * @param threads	number of threads executing requests
+	 */
+	public PartnerDispatcher(int threads) {
+		this(Executors.newFixedThreadPool(threads, new DispatcherThreadFactory()));
+	}
+
+	/**
+	 * Constructs a dispatcher executing requests on the given executor.
+	 *
+	 * @param pool	the executor to execute requests on; must not run tasks in
+	 * 				the submitting thread
+	 */
+	public PartnerDispatcher(Executor pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Registers a connection of a partner, returning the executor of the
+	 * partner, which runs its requests one after the other. Each connection
+	 * registered needs to be unregistered via <code>disconnect</code> once
+	 * closed.
+	 *
+	 * @param partnerID	unique ID of the partner
+	 * @return			the executor for the requests of the partner
+	 */
+	public Executor connect(String partnerID) {
+		return partners.compute(partnerID, (id, partner) -> {
+			if (partner == null)
+				partner = new Partner(id);
+			partner.connections++;
+			return partner;
+		}).executor;
+	}
+
+	/**
+	 * Unregisters a connection of a partner. Once the partner has no
+	 * connection left, its executor is dropped as soon as its pending requests
+	 * have been executed.
+	 *
+	 * @param partnerID	unique ID of the partner
+	 */
+	public void disconnect(String partnerID) {
+		partners.computeIfPresent(partnerID, (id, partner) -> {
+			partner.connections--;
+			return partner.isUnused() ? null : partner;
+		});
+	}
+
+	/**
+	 * Returns the number of partners being connected, or having requests pending.
+	 *
+	 * @return	the number of partners
+	 */
+	public int getPartners() {
+		return partners.size();
+	}
+
+	// drops the executor of a partner having neither connections nor pending requests
+	private void evictIfUnused(String partnerID) {
+		partners.computeIfPresent(partnerID, (id, partner) -> partner.isUnused() ? null : partner);
+	}
+
+	// the executor of a partner, and the number of its connections; guarded by the map
+	private class Partner {
+
+		private final SerialExecutor executor;
+		private int connections;
+
+		Partner(String partnerID) {
+			executor = new SerialExecutor(pool, () -> evictIfUnused(partnerID));
+		}
+
+		boolean isUnused() {
+			return connections == 0 && executor.isIdle();
+		}
+
+	}
+
+	// names the threads of the pool, and lets them not keep the JVM alive
+	private static class DispatcherThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "partner-dispatcher-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
@@ -1,15 +1,33 @@
 package lu.uni.distributedsystems.gsonrmi.server;
 
+import java.util.Arrays;
+
 public class PartnerID {
 
+	/**
+	 * Capability of a partner matching responses to its requests by their ids,
+	 * such that the responses may be sent out of order.
+	 */
+	public static final String UNORDERED = "unordered";
+
 	private String partnerID;
+	private String[] capabilities; // optional features offered by the partner, e.g. compression
 	
 	public PartnerID(String partnerID) {
 		this.partnerID = partnerID;
 	}
 	
+	public PartnerID(String partnerID, String... capabilities) {
+		this.partnerID = partnerID;
+		this.capabilities = capabilities;
+	}
+	
 	public String getPartnerID() {
 		return partnerID;
 	}
 	
+	public boolean hasCapability(String capability) {
+		return capabilities != null && Arrays.asList(capabilities).contains(capability);
+	}
+	
 }
@@ -0,0 +1,311 @@
+package lu.uni.distributedsystems.gsonrmi.server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.code.gsonrmi.Parameter;
+import com.google.code.gsonrmi.RpcRequest;
+import com.google.code.gsonrmi.server.RpcTarget;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Decodes the requests received via a connection straight from the stream of
+ * characters, rather than parsing each one into a tree of JsonElements first.
+ * Once the method of a request has been read, each of its params is
+ * deserialized right away into the type of the corresponding parameter of
+ * the method, as given by the RpcTarget.
+ * <p>
+ * Params are kept as trees, to be deserialized on invocation as before, in
+ * case the types are not known while reading them: if the params precede the
+ * method in the request, if the method is overloaded by the number of params
+ * or unknown, or if a parameter is to be passed on as a Parameter. A param that
+ * cannot be deserialized into the type of its parameter marks its request
+ * as malformed; the remainder of the request is read nevertheless, such that
+ * it may be answered by an error. Likewise, an element of a batch that is not
+ * a request object, or a field of a request that is not of the expected type,
+ * marks the request as invalid, to be answered by an error on its own
+ * rather than failing the batch as a whole.
+ */
+class RequestDecoder {
+
+	private Gson gson;
+	private RpcTarget rpcTarget;
+	private FrameCompression compression; // compression of the frames negotiated, or null if frames are not compressed
+	private DepthReader in;
+	private boolean batch; // true if the message read last is a batch
+
+	private TypeAdapter<JsonElement> treeAdapter;
+	private TypeAdapter<Parameter> idAdapter;
+	private TypeAdapter<String> stringAdapter;
+	private TypeAdapter<Long> longAdapter;
+
+	/**
+	 * Constructs a decoder reading from the given stream of characters.
+	 *
+	 * @param in		the characters received via the connection
+	 * @param rpcTarget	the RpcTarget the requests are addressed to
+	 * @param gson		the Gson object to use for deserialization
+	 */
+	RequestDecoder(Reader in, RpcTarget rpcTarget, Gson gson) {
+		this.in = new DepthReader(in);
+		// one top-level value after the other
+		this.in.setLenient(true);
+		this.rpcTarget = rpcTarget;
+		this.gson = gson;
+		treeAdapter = gson.getAdapter(JsonElement.class);
+		idAdapter = gson.getAdapter(Parameter.class);
+		stringAdapter = gson.getAdapter(String.class);
+		longAdapter = gson.getAdapter(Long.class);
+	}
+
+	/**
+	 * Reads the PartnerID sent by the partner at the start of the connection.
+	 *
+	 * @return	the PartnerID, or null if the connection has been closed
+	 * @throws IOException	if there is an issue communicating via the socket
+	 */
+	PartnerID readPartnerID() throws IOException {
+		if (!hasNext())
+			return null;
+		return gson.fromJson(in, PartnerID.class);
+	}
+
+	/**
+	 * Lets compressed frames (see FrameCompression) be decompressed, once
+	 * negotiated.
+	 *
+	 * @param compression	the compression negotiated, or null if none
+	 */
+	void setCompression(FrameCompression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Returns whether a further message has been received, waiting for it if necessary.
+	 *
+	 * @return	false if the connection has been closed by the partner
+	 * @throws IOException	if there is an issue communicating via the socket
+	 */
+	boolean hasNext() throws IOException {
+		return in.peek() != JsonToken.END_DOCUMENT;
+	}
+
+	/**
+	 * Reads the next message, either a single request or a batch.
+	 *
+	 * @return	the requests of the message
+	 * @throws IOException			if there is an issue communicating via the socket
+	 * @throws JsonParseException	if the message is not valid JSON, or not a request
+	 */
+	RpcRequest[] next() throws IOException {
+		try {
+			return readMessage(in, compression != null);
+		}
+		catch (IllegalStateException | NumberFormatException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	/**
+	 * Returns whether the message read last is a batch, to be answered by an
+	 * array of responses.
+	 *
+	 * @return	true if the message read last is a batch
+	 */
+	boolean isBatch() {
+		return batch;
+	}
+
+	private RpcRequest[] readMessage(DepthReader reader, boolean compressed) throws IOException {
+		if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+			batch = true;
+			List<RpcRequest> requests = new ArrayList<RpcRequest>();
+			reader.beginArray();
+			while (reader.hasNext()) {
+				if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+					reader.skipValue();
+					RpcRequest invalid = new RpcRequest();
+					invalid.invalid = true;
+					requests.add(invalid);
+					continue;
+				}
+				reader.beginObject();
+				requests.add(readRequest(reader, reader.hasNext() ? reader.nextName() : null));
+			}
+			reader.endArray();
+			return requests.toArray(new RpcRequest[requests.size()]);
+		}
+
+		reader.beginObject();
+		String name = reader.hasNext() ? reader.nextName() : null;
+		if (compressed && FrameCompression.DEFLATE.equals(name)) {
+			String payload = reader.nextString();
+			while (reader.hasNext()) {
+				reader.nextName();
+				reader.skipValue();
+			}
+			reader.endObject();
+			DepthReader frame = new DepthReader(new StringReader(compression.decompressPayload(payload)));
+			return readMessage(frame, false);
+		}
+		batch = false;
+		return new RpcRequest[] { readRequest(reader, name) };
+	}
+
+	// reads the fields of a request, the first name of which has been read already
+	private RpcRequest readRequest(DepthReader reader, String name) throws IOException {
+		RpcRequest request = new RpcRequest();
+		for (; name != null; name = reader.hasNext() ? reader.nextName() : null) {
+			int depth = reader.depth;
+			String path = reader.getPath();
+			try {
+				readField(reader, name, request);
+			}
+			catch (JsonIOException e) {
+				throw e;
+			}
+			catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+				// skip what remains of the field, then go on with the request
+				request.invalid = true;
+				skip(reader, depth, path);
+			}
+		}
+		reader.endObject();
+		return request;
+	}
+
+	private void readField(DepthReader reader, String name, RpcRequest request) throws IOException {
+		switch (name) {
+		case "jsonrpc":
+			request.jsonrpc = stringAdapter.read(reader);
+			break;
+		case "method":
+			request.method = stringAdapter.read(reader);
+			break;
+		case "params":
+			request.params = readParams(reader, request);
+			break;
+		case "id":
+			request.id = idAdapter.read(reader);
+			break;
+		case "idempotencyKey":
+			request.idempotencyKey = stringAdapter.read(reader);
+			break;
+		case "timeout":
+			request.timeout = longAdapter.read(reader);
+			break;
+		default:
+			reader.skipValue();
+		}
+	}
+
+	private Parameter[] readParams(DepthReader reader, RpcRequest request) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+
+		Type[] types = request.method != null ? rpcTarget.getParamTypes(request.method) : null;
+		List<Parameter> params = new ArrayList<Parameter>();
+		reader.beginArray();
+		for (int i = 0; reader.hasNext(); i++) {
+			Type type = types != null && i < types.length ? types[i] : null;
+			params.add(readParam(reader, type, request));
+		}
+		reader.endArray();
+		return params.toArray(new Parameter[params.size()]);
+	}
+
+	private Parameter readParam(DepthReader reader, Type type, RpcRequest request) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		if (type == null)
+			return new Parameter(treeAdapter.read(reader));
+
+		int depth = reader.depth;
+		String path = reader.getPath();
+		try {
+			return new Parameter(gson.getAdapter(TypeToken.get(type)).read(reader), type);
+		}
+		catch (JsonIOException e) {
+			throw e;
+		}
+		catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+			// skip what remains of the param, then go on with the request
+			request.malformed = true;
+			skip(reader, depth, path);
+			return null;
+		}
+	}
+
+	// skips what remains of a value that failed to be read, given the depth and path before reading it
+	private static void skip(DepthReader reader, int depth, String path) throws IOException {
+		while (reader.depth > depth) {
+			JsonToken token = reader.peek();
+			if (token == JsonToken.END_ARRAY)
+				reader.endArray();
+			else if (token == JsonToken.END_OBJECT)
+				reader.endObject();
+			else if (token == JsonToken.NAME)
+				reader.nextName();
+			else
+				reader.skipValue();
+		}
+		// the value failing might not have been consumed
+		if (reader.getPath().equals(path))
+			reader.skipValue();
+	}
+
+	/**
+	 * A JsonReader keeping track of the depth of nesting, i.e. of the number of
+	 * arrays and objects begun but not ended yet.
+	 */
+	private static class DepthReader extends JsonReader {
+
+		int depth;
+
+		DepthReader(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public void beginArray() throws IOException {
+			super.beginArray();
+			depth++;
+		}
+
+		@Override
+		public void endArray() throws IOException {
+			super.endArray();
+			depth--;
+		}
+
+		@Override
+		public void beginObject() throws IOException {
+			super.beginObject();
+			depth++;
+		}
+
+		@Override
+		public void endObject() throws IOException {
+			super.endObject();
+			depth--;
+		}
+
+	}
+
+}
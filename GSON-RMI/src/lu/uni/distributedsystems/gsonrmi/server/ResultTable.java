@@ -0,0 +1,105 @@
+package lu.uni.distributedsystems.gsonrmi.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import com.google.code.gsonrmi.RpcRequest;
+import com.google.code.gsonrmi.RpcResponse;
+
+/**
+ * Table of the responses to requests carrying an idempotency key, such that
+ * a request resent by a client after a lost connection is answered from the
+ * table instead of being executed a second time. Keys are scoped per partner.
+ * <p>
+ * The table holds a bounded number of responses, evicting the least recently
+ * used ones. A resent request arriving while the original one is still being
+ * executed, e.g. via another connection, waits for the original's response.
+ */
+public class ResultTable {
+
+	// default number of responses kept
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private Map<String, CompletableFuture<RpcResponse>> results;
+
+	private static Logger logger = Logger.getLogger(ResultTable.class.getName());
+
+	/**
+	 * Constructs a result table keeping up to the given number of responses.
+	 *
+	 * @param capacity maximum number of responses kept
+	 */
+	public ResultTable(final int capacity) {
+		results = new LinkedHashMap<String, CompletableFuture<RpcResponse>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<RpcResponse>> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Executes a request, unless a request with the same idempotency key has
+	 * already been executed for the same partner, in which case the recorded
+	 * response is returned. Requests without idempotency key are always executed.
+	 *
+	 * @param partnerID  unique ID of the partner sending the request
+	 * @param request    the request to execute
+	 * @param invocation executes the request, returning its response
+	 * @return The response to the request.
+	 */
+	public RpcResponse execute(String partnerID, RpcRequest request, Function<RpcRequest, RpcResponse> invocation) {
+		if (request.idempotencyKey == null)
+			return invocation.apply(request);
+
+		String key = partnerID + '\u0000' + request.idempotencyKey;
+		CompletableFuture<RpcResponse> result = new CompletableFuture<RpcResponse>();
+		CompletableFuture<RpcResponse> recorded;
+		synchronized (this) {
+			recorded = results.get(key);
+			if (recorded == null)
+				results.put(key, result);
+		}
+
+		if (recorded != null) {
+			RpcResponse original;
+			try {
+				original = recorded.join();
+			}
+			catch (CompletionException ex) {
+				// the original execution failed without recording a response
+				return execute(partnerID, request, invocation);
+			}
+			logger.info("answering repeated request " + request.idempotencyKey + " of " + partnerID + " from result table");
+
+			// answer with the id of the repeated request
+			RpcResponse response = new RpcResponse();
+			response.result = original.result;
+			response.error = original.error;
+			response.id = request.id;
+			return response;
+		}
+
+		try {
+			RpcResponse response = invocation.apply(request);
+			result.complete(response);
+			return response;
+		}
+		catch (Throwable ex) {
+			// nothing has been recorded, hence a repeated request is executed once more;
+			// repeated requests waiting for this execution are released in any case
+			synchronized (this) {
+				results.remove(key);
+			}
+			result.completeExceptionally(ex);
+			throw ex;
+		}
+	}
+
+}
@@ -1,40 +1,99 @@
 package lu.uni.distributedsystems.gsonrmi.server;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.code.gsonrmi.RpcRequest;
 import com.google.code.gsonrmi.RpcResponse;
 import com.google.code.gsonrmi.server.RpcTarget;
+import com.google.code.gsonrmi.RpcError;
 import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
-import com.google.gson.JsonStreamParser;
+import com.google.gson.stream.JsonWriter;
+
+import lu.uni.distributedsystems.gsonrmi.logging.LazyJson;
 
 /**
  * A handler for a single JSON-RPC server connection.
- * Objects of this class each run in their own separate thread.
+ * Objects of this class each run in their own separate thread, which is
+ * either a platform or a virtual thread, depending on the execution mode
+ * of the RpcSocketListener.
+ * <p>
+ * In case the partner offers compression in its PartnerID, the handler
+ * accepts it in the reply to the handshake, with the partner's dictionary if
+ * this handler has been given the same one; large frames are then exchanged
+ * compressed in both directions (see FrameCompression).
+ * <p>
+ * Requests are pipelined: the thread of the handler keeps reading (and
+ * parsing) requests, while the requests read before are executed, and their
+ * responses written, by the pipeline executor. Requests are executed one
+ * after the other, and responses are sent in the order of the requests.
+ * In case the partner offers the capability UNORDERED in its PartnerID,
+ * since it matches responses by their ids, its requests are executed
+ * concurrently instead, and each response is sent as soon as it is ready.
+ * At most PIPELINE_DEPTH requests (or batches) are read ahead of the
+ * responses sent; beyond that, reading blocks, such that a partner
+ * flooding the connection is slowed down by TCP flow control.
+ * <p>
+ * In case a PartnerDispatcher has been set, requests are executed by the
+ * executor of the partner instead, i.e. in order across all connections of
+ * the partner.
  */
-public class RpcConnectionHandler extends Thread {
+public class RpcConnectionHandler implements Runnable {
 
 	private Socket socket;
 	private RpcTarget rpcTarget;
 	private Gson gson;
-	private JsonStreamParser in;
+	private RequestDecoder in; // decodes requests straight from the socket
+	private OutputStream socketOut;
 	private Writer out;
+	private JsonWriter jsonOut; // serializes responses straight into the (reused) byte buffer of out
+	private List<FrameCompression> compressions = Collections.emptyList(); // compressions with a dictionary to accept
+	private FrameCompression compression; // compression of frames negotiated in the handshake, or null if none
+	private Frame frame;         // responses are serialized into, if compression has been negotiated
+	private JsonWriter frameOut; // serializes responses into frame
 	private Interceptor interceptor;
 	private IPEndpoint remoteIPEndpoint;
 	private Random rnd = new Random();
 	private String partnerID; // the (unique) ID of the partner being connected with
+	private Executor batchExecutor; // executes the requests of a batch in parallel, or null to execute them in order
+	private AdmissionControl admissionControl; // limits concurrent requests, or null if unlimited
+	private Executor pipelineExecutor = Runnable::run; // executes requests and sends responses; by default, the thread of this handler
+	private PartnerDispatcher dispatcher; // executes requests in order per partner, or null to execute them per connection
+	private boolean unordered; // true if the partner accepts responses out of order
+	private Semaphore inFlight = new Semaphore(PIPELINE_DEPTH); // requests read, but not answered yet
+	private volatile boolean closed; // true once the connection is being closed on purpose
+
+	// maximum number of requests (or batches) read ahead of the responses sent, as given
+	// by the system property gsonrmi.pipelineDepth
+	private static final int PIPELINE_DEPTH = Math.max(1, Integer.getInteger("gsonrmi.pipelineDepth", 64));
 
 	// directory of service modes, per partnerID
 	private static Map<String, ServiceMode> serviceModes = new ConcurrentHashMap<String, ServiceMode>();
+
+	// responses to requests carrying an idempotency key, shared by all connections,
+	// since a request is typically resent via a new connection
+	private static ResultTable resultTable = new ResultTable(ResultTable.DEFAULT_CAPACITY);
 	
 	private static Logger logger = Logger.getLogger(RpcConnectionHandler.class.getName());
 
@@ -53,9 +112,74 @@ public class RpcConnectionHandler extends Thread {
 		this.gson = gson;
 		this.interceptor = interceptor;
 		remoteIPEndpoint = new IPEndpoint(socket.getInetAddress(), socket.getPort());
-		in = new JsonStreamParser(new InputStreamReader(socket.getInputStream(), "utf-8"));
-		out = new OutputStreamWriter(socket.getOutputStream(), "utf-8");
-		setDaemon(true);
+		in = new RequestDecoder(new InputStreamReader(socket.getInputStream(), "utf-8"), rpcTarget, gson);
+		socketOut = socket.getOutputStream();
+		out = new OutputStreamWriter(socketOut, "utf-8");
+		// lenient, such that one response after the other may be written as a top-level value
+		jsonOut = new JsonWriter(out);
+		jsonOut.setLenient(true);
+	}
+
+	/**
+	 * Lets the requests of a batch be executed in parallel by the given executor,
+	 * rather than one after the other by the thread of this handler.
+	 * 
+	 * @param batchExecutor	executor for the requests of a batch, or null
+	 */
+	void setBatchExecutor(Executor batchExecutor) {
+		this.batchExecutor = batchExecutor;
+	}
+
+	/**
+	 * Lets requests be executed, and responses be sent, by the given executor,
+	 * such that the thread of this handler may read further requests in the
+	 * meantime. By default, the thread of this handler does all of the work,
+	 * i.e. requests are not pipelined. Work rejected by the executor, e.g. since
+	 * it has been shut down, is done by the thread handing it on instead.
+	 * 
+	 * @param pipelineExecutor	executor for the execution of requests and the sending of responses
+	 */
+	void setPipelineExecutor(Executor pipelineExecutor) {
+		this.pipelineExecutor = task -> {
+			try {
+				pipelineExecutor.execute(task);
+			}
+			catch (RejectedExecutionException e) {
+				task.run();
+			}
+		};
+	}
+
+	/**
+	 * Lets requests be executed by the executor of the partner, as given by
+	 * the dispatcher, rather than in order per connection.
+	 * 
+	 * @param dispatcher	dispatcher of requests by partner, or null
+	 */
+	void setDispatcher(PartnerDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Lets this handler accept compression with any of the given dictionaries,
+	 * in case the partner offers the same one. Plain compression is accepted
+	 * in any case.
+	 * 
+	 * @param compressions	the compressions with a dictionary to accept
+	 */
+	void setCompressions(List<FrameCompression> compressions) {
+		this.compressions = compressions;
+	}
+
+	/**
+	 * Lets this handler take part in the admission control of its listener:
+	 * requests exceeding the limit are rejected, and the connection is released
+	 * once closed.
+	 * 
+	 * @param admissionControl	the admission control having admitted this connection
+	 */
+	void setAdmissionControl(AdmissionControl admissionControl) {
+		this.admissionControl = admissionControl;
 	}
 	
 	/**
@@ -119,107 +243,361 @@ public class RpcConnectionHandler extends Thread {
 	/**
 	 * Main loop of this connection handler, performing request handling as follows:
 	 * <p>
-	 * Receive a JSON-RPC request via the socket connection. Close the
+	 * Receive a JSON-RPC request, or a batch of requests, via the socket connection. Close the
 	 * connection in case the current service mode is DISCONNECT_BEFORE_PROCESSING.
-	 * Otherwise, forward the request to the interceptor. Either the interceptor
+	 * Otherwise, in case the deadline given by the timeout of the request has
+	 * passed already, answer it by an error right away. Otherwise,
+	 * in case the request carries an idempotency key that has been
+	 * processed before, take the response recorded for it. Otherwise, forward the
+	 * request to the interceptor. Either the interceptor
 	 * returns a response for that request, or the response is generated by handling the
 	 * request (via the RpcTarget specified at construction time). The response is forwarded
 	 * to the interceptor. In case the current service mode is DISCONNECT_BEFORE_REPLY,
-	 * the connection is closed. Otherwise, the response is sent back via
-	 * the socket to the caller.
+	 * the connection is closed, and the requests read ahead but not executed yet
+	 * are dropped, as if not received. Otherwise, the response is sent back via
+	 * the socket to the caller. The requests of a batch are processed one after
+	 * the other, or in parallel in case a batch executor has been set, and their
+	 * responses are sent back as an array, in the order of the requests.
+	 * <p>
+	 * Only reading is done by this thread; processing and replying are handed
+	 * on to the pipeline executor, such that the next request is read while
+	 * the previous one is processed. Before the connection is closed, the
+	 * responses to the requests read so far are sent.
 	 */
 	@Override
 	public void run() {
+		boolean connected = false; // true once registered with the dispatcher
 		try {
 			// initialize connection
 			// read partnerID from the socket
-			PartnerID partnerIDObject = gson.fromJson(in.next(), PartnerID.class);
+			PartnerID partnerIDObject = in.readPartnerID();
+			if (partnerIDObject == null)
+				throw new EOFException("connection closed during handshake");
 			partnerID = partnerIDObject.getPartnerID();
 			logger.info("handling connection from: " + partnerID + " at " + remoteIPEndpoint);
 			
-			// send back OK reply
-			out.write("{'result':'OK'}");
+			// send back OK reply, accepting compression and unordered responses in
+			// case the partner offered them
+			compression = FrameCompression.negotiate(partnerIDObject, compressions);
+			unordered = partnerIDObject.hasCapability(PartnerID.UNORDERED);
+			in.setCompression(compression);
+			StringBuilder capabilities = new StringBuilder();
+			if (compression != null) {
+				frame = new Frame();
+				frameOut = new JsonWriter(new OutputStreamWriter(frame, "utf-8"));
+				frameOut.setLenient(true);
+				capabilities.append(",\"").append(compression.getCapability()).append('"');
+			}
+			if (unordered)
+				capabilities.append(",\"").append(PartnerID.UNORDERED).append('"');
+			if (capabilities.length() > 0)
+				out.write("{\"result\":\"OK\",\"capabilities\":[" + capabilities.substring(1) + "]}");
+			else
+				out.write("{'result':'OK'}");
 			out.flush();
 			
 			// initialize service mode for this connection
 			initializeServiceMode(partnerID);
 			
-			// main request processing loop
+			// main request processing loop; requests are executed one after the other,
+			// unless the partner accepts unordered responses, or by the executor of
+			// the partner in case requests are dispatched by partner
+			Executor executor = pipelineExecutor;
+			if (dispatcher != null) {
+				executor = dispatcher.connect(partnerID);
+				connected = true;
+			}
+			CompletableFuture<?> executed = CompletableFuture.completedFuture(null); // execution of the previous request
+			CompletableFuture<?> written = CompletableFuture.completedFuture(null);  // response to the previous request
 			while (in.hasNext()) {
-				// fetch request from the socket
-				RpcRequest request = gson.fromJson(in.next(), RpcRequest.class);
+				// fetch request from the socket; an array of requests is a batch,
+				// answered by an array of responses in one go; params are deserialized
+				// into the parameter types of the method while being read
+				RpcRequest[] requests = in.next();
+				long received = System.nanoTime();
+				boolean batch = in.isBatch();
+				LazyJson message = new LazyJson(gson, batch ? requests : requests[0]);
 
-				// determine current service mode
-				ServiceMode mode = serviceModes.get(partnerID);
+				// determine current service mode, which applies to a batch as a whole
+				ServiceMode selected = serviceModes.get(partnerID);
 				
 				// in case of RANDOM service behavior, randomly pick how to handle the current request 
-				if (mode == ServiceMode.RANDOM) {
+				if (selected == ServiceMode.RANDOM) {
 					switch (rnd.nextInt(3)) {
 					case 0:
-						mode = ServiceMode.RELIABLE;
+						selected = ServiceMode.RELIABLE;
 						break;
 					case 1:
-						mode = ServiceMode.DISCONNECT_BEFORE_PROCESSING;
+						selected = ServiceMode.DISCONNECT_BEFORE_PROCESSING;
 						break;
 					case 2:
-						mode = ServiceMode.DISCONNECT_BEFORE_REPLY;
+						selected = ServiceMode.DISCONNECT_BEFORE_REPLY;
 						break;
 					}
-                    logger.info("handling request: " + gson.toJson(request) + " from host: " + remoteIPEndpoint + " in randomly chosen mode: " + mode);
+                    if (logger.isLoggable(Level.INFO))
+                        logger.log(Level.INFO, "handling request: {0} from host: {1} in randomly chosen mode: {2}", new Object[] { message, remoteIPEndpoint, selected });
                 }
                 else
                 {
-                    logger.info("handling request: " + gson.toJson(request) + " from host: " + remoteIPEndpoint + " in mode: " + mode);
+                    // the request is turned into a string only once the record is written
+                    if (logger.isLoggable(Level.INFO))
+                        logger.log(Level.INFO, "handling request: {0} from host: {1} in mode: {2}", new Object[] { message, remoteIPEndpoint, selected });
                 }
+				ServiceMode mode = selected;
 				
 				// simulate the case where a request is not received (and thus not processed)
 				if (mode == ServiceMode.DISCONNECT_BEFORE_PROCESSING) {
+					awaitResponses();
 					throw new IOException("explicit disconnect before processing request");
 				}
 				
-				RpcResponse response = null;
-				
-				// intercept the request; might return a response to be sent back ...
-				if (interceptor != null)
-					response = interceptor.interceptRequest(request);
-
-				// ... or null in case the request shall be processed in the normal way 
-				if (response == null)
-					response = rpcTarget.doInvoke(request);
-
-				// intercept the response (even in case it was a stored response
-				// returned by the request interceptor)
-				if (interceptor != null)
-					interceptor.interceptResponse(request, response);
-				
-				// simulate the case where the request has been processed, but the
-				// reply could not be sent back
-                if (mode == ServiceMode.DISCONNECT_BEFORE_REPLY)
-                {
-                    throw new IOException("explicit disconnect before reply");
-                }
-                
-                // send back reply
-                logger.info("sending response: " + gson.toJson(response) + " for request: " + gson.toJson(request) + " to host: " + remoteIPEndpoint);
-				out.write(gson.toJson(response));
-				out.flush();
+				// hand the request on, unless too many requests are pending already
+				inFlight.acquireUninterruptibly();
+				CompletableFuture<RpcResponse[]> execution;
+				if (dispatcher != null || unordered)
+					execution = CompletableFuture.supplyAsync(() -> process(requests, received), executor);
+				else {
+					execution = executed.thenApplyAsync(previous -> process(requests, received), pipelineExecutor);
+					// the next request is executed, even if the execution of this one fails
+					executed = execution.handle((responses, e) -> null);
+				}
+				// the response is sent once the previous response has been sent
+				if (!unordered)
+					execution = execution.thenCombine(written, (responses, previous) -> responses);
+				CompletableFuture<Void> reply = execution.thenAcceptAsync(responses -> reply(message, batch, responses, mode), pipelineExecutor);
+				reply.whenComplete((ignored, e) -> {
+					inFlight.release();
+					if (e != null)
+						fail(e);
+				});
+				written = reply;
 			}
+			awaitResponses();
 		}
 		catch (IOException e) {
 			logger.info("closing connection with: " + remoteIPEndpoint);
 		}
 		catch (JsonParseException e) {
-			System.err.println("Error parsing incoming JSON message");
-			e.printStackTrace();
+			// reading fails as well in case the connection has been closed on purpose
+			if (closed)
+				logger.info("closing connection with: " + remoteIPEndpoint);
+			else {
+				System.err.println("Error parsing incoming JSON message");
+				e.printStackTrace();
+			}
 		}
 		finally {
+			close();
+			if (connected)
+				dispatcher.disconnect(partnerID);
+			if (admissionControl != null)
+				admissionControl.releaseConnection();
+		}
+	}
+
+	/**
+	 * Sends back the response(s) to a request or batch, unless the connection
+	 * shall be closed instead.
+	 * 
+	 * @param message	the request or batch, for logging
+	 * @param batch		true if the message is a batch
+	 * @param responses	the responses, in the order of the requests
+	 * @param mode		the service mode the request is handled in
+	 */
+	private void reply(LazyJson message, boolean batch, RpcResponse[] responses, ServiceMode mode) {
+		try {
+			// simulate the case where the request has been processed, but the
+			// reply could not be sent back
+			if (mode == ServiceMode.DISCONNECT_BEFORE_REPLY)
+				throw new IOException("explicit disconnect before reply");
+
+			// send back reply
+			Object reply = batch ? responses : responses[0];
+			if (logger.isLoggable(Level.INFO))
+				logger.log(Level.INFO, "sending response: {0} for request: {1} to host: {2}", new Object[] { new LazyJson(gson, reply), message, remoteIPEndpoint });
+			send(reply);
+		}
+		catch (IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	// closes the connection, since a request could not be answered
+	private void fail(Throwable e) {
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		if (!(cause instanceof IOException))
+			logger.log(Level.WARNING, "failed to answer request from host: " + remoteIPEndpoint, cause);
+		close();
+	}
+
+	// waits until the responses to all requests read have been sent (or have failed)
+	private void awaitResponses() {
+		inFlight.acquireUninterruptibly(PIPELINE_DEPTH);
+		inFlight.release(PIPELINE_DEPTH);
+	}
+
+	private void close() {
+		closed = true;
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Sends back a response, or an array of responses, one at a time. Unless compression has
+	 * been negotiated, it is serialized straight into the socket's buffer rather
+	 * than into a String. Otherwise, it is serialized into the frame buffer of
+	 * this connection first, and compressed in case it exceeds the threshold.
+	 * 
+	 * @param reply			the response(s) to send
+	 * @throws IOException	if there is an issue communicating via the socket
+	 */
+	private synchronized void send(Object reply) throws IOException {
+		if (compression == null) {
+			gson.toJson(reply, reply.getClass(), jsonOut);
+			jsonOut.flush();
+			return;
+		}
+
+		frame.reset();
+		gson.toJson(reply, reply.getClass(), frameOut);
+		frameOut.flush();
+		byte[] compressed = compression.compress(frame.bytes(), frame.size());
+		if (compressed != null)
+			socketOut.write(compressed);
+		else
+			socketOut.write(frame.bytes(), 0, frame.size());
+		socketOut.flush();
+	}
+
+	/**
+	 * Processes the requests of a batch, in parallel in case a batch executor
+	 * has been set. An empty batch is answered by a single error response, as
+	 * required by JSON-RPC 2.0. Nothing is processed once the connection has
+	 * been closed.
+	 * 
+	 * @param requests	the requests to process
+	 * @param received	arrival time of the requests, as given by System.nanoTime()
+	 * @return			the responses, in the order of the requests
+	 */
+	private RpcResponse[] process(RpcRequest[] requests, long received) {
+		// requests read ahead are dropped once the connection has been closed,
+		// e.g. since the reply to a previous request could not be sent
+		if (closed)
+			throw new CompletionException(new IOException("connection closed before processing request"));
+
+		if (requests.length == 0) {
+			RpcResponse response = new RpcResponse();
+			response.error = new RpcError(RpcError.INVALID_REQUEST, "empty batch");
+			return new RpcResponse[] { response };
+		}
+
+		RpcResponse[] responses = new RpcResponse[requests.length];
+		if (batchExecutor == null || requests.length == 1) {
+			for (int i = 0; i < requests.length; i++)
+				responses[i] = process(requests[i], received);
+			return responses;
+		}
+
+		List<CompletableFuture<RpcResponse>> futures = new ArrayList<CompletableFuture<RpcResponse>>(requests.length);
+		for (RpcRequest request : requests)
+			futures.add(CompletableFuture.supplyAsync(() -> process(request, received), batchExecutor));
+		for (int i = 0; i < requests.length; i++)
+			responses[i] = futures.get(i).join();
+		return responses;
+	}
+
+	/**
+	 * Processes a single request. A request whose caller has given up waiting,
+	 * as given by the timeout sent along, is not processed at all, but answered
+	 * by an error, as is a request exceeding the limit of concurrent requests,
+	 * a request a param of which could not be deserialized, or a request that
+	 * is not a valid request object. A request carrying an idempotency key that
+	 * has been processed before, e.g. since the reply got lost, is answered
+	 * from the result table. The response is forwarded to the interceptor
+	 * (even in case it was a stored response returned by the request interceptor).
+	 * 
+	 * @param request	the request to process
+	 * @param received	arrival time of the request, as given by System.nanoTime()
+	 * @return			the response to the request
+	 */
+	private RpcResponse process(RpcRequest request, long received) {
+		RpcResponse response;
+		// neither invalid, malformed, expired nor rejected requests are recorded in the
+		// result table, such that a resent request is processed
+		if (request.invalid) {
+			response = error(request, RpcError.INVALID_REQUEST);
+		}
+		else if (request.malformed) {
+			// as the invoker does in case a param cannot be deserialized
+			response = error(request, RpcError.PARSER_ERROR);
+		}
+		else if (isExpired(request, received)) {
+			logger.info("skipping request: " + request.id + " from host: " + remoteIPEndpoint + ", since its deadline has passed");
+			response = error(request, RpcError.DEADLINE_EXCEEDED);
+		}
+		else if (admissionControl != null && !admissionControl.tryAcquireRequest()) {
+			logger.warning("rejecting request: " + request.id + " from host: " + remoteIPEndpoint + ", since too many requests are being processed");
+			response = error(request, new RpcError(RpcError.SERVER_OVERLOADED, "too many requests, retry later"));
+		}
+		else {
 			try {
-				socket.close();
+				response = resultTable.execute(partnerID, request, this::invoke);
 			}
-			catch (IOException e) {
+			finally {
+				if (admissionControl != null)
+					admissionControl.releaseRequest();
 			}
 		}
+		if (interceptor != null)
+			interceptor.interceptResponse(request, response);
+		return response;
+	}
+
+	// returns an error response to the request
+	private static RpcResponse error(RpcRequest request, RpcError error) {
+		RpcResponse response = new RpcResponse();
+		response.id = request.id;
+		response.error = error;
+		return response;
+	}
+
+	// returns whether the caller stopped waiting for the response to the request
+	private static boolean isExpired(RpcRequest request, long received) {
+		return request.timeout != null && System.nanoTime() - received >= TimeUnit.MILLISECONDS.toNanos(request.timeout);
 	}
 
+	/**
+	 * Processes a request, either by the interceptor or via the RpcTarget.
+	 * 
+	 * @param request	the request to process
+	 * @return			the response to the request
+	 */
+	private RpcResponse invoke(RpcRequest request) {
+		RpcResponse response = null;
+		
+		// intercept the request; might return a response to be sent back ...
+		if (interceptor != null)
+			response = interceptor.interceptRequest(request);
+
+		// ... or null in case the request shall be processed in the normal way 
+		if (response == null)
+			response = rpcTarget.doInvoke(request);
+		return response;
+	}
+
+	/**
+	 * A growable buffer, reused for every frame of a connection.
+	 */
+	private static class Frame extends ByteArrayOutputStream {
+
+		// the buffer itself, holding size() bytes
+		byte[] bytes() {
+			return buf;
+		}
+
+	}
 
 }
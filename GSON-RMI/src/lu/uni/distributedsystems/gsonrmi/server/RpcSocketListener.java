@@ -1,15 +1,40 @@
 package lu.uni.distributedsystems.gsonrmi.server;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
+import com.google.code.gsonrmi.RpcError;
+import com.google.code.gsonrmi.RpcResponse;
 import com.google.code.gsonrmi.server.RpcTarget;
 import com.google.gson.Gson;
 
 /**
  * A listener for JSON-RPC server connection requests.
  * Objects of this class each run in their own separate thread.
+ * <p>
+ * Each accepted connection is handled by an RpcConnectionHandler, which is
+ * run on a thread of its own, as given by the execution mode: either a
+ * platform thread or a virtual thread. Alternatively, handlers may be run by
+ * an ExecutorService supplied by the application. The requests pipelined by
+ * the handlers are executed by the same executor in case it has been created
+ * by the listener, and by a dedicated pool of the listener otherwise, such
+ * that a bounded executor of the application cannot starve them.
+ * <p>
+ * Connections and requests are subject to admission control: beyond the
+ * configured number of concurrent connections, a new connection is answered
+ * by a JSON-RPC error (SERVER_OVERLOADED) and closed right away; the same
+ * holds for requests beyond the number of concurrent requests. Connection
+ * attempts not accepted yet are queued by the operating system, up to the
+ * accept backlog given by the system property gsonrmi.acceptBacklog.
  */
 public class RpcSocketListener extends Thread {
 
@@ -17,6 +42,16 @@ public class RpcSocketListener extends Thread {
 	private RpcTarget rpcTarget;
 	private Gson gson;
 	private Interceptor interceptor;
+	private ExecutorService executor; // runs the connection handlers
+	private boolean ownExecutor;      // true if the executor has been created by this listener
+	private ExecutorService pipelineExecutor; // executes the requests pipelined by the handlers
+	private volatile Executor batchExecutor; // executes the requests of a batch in parallel, or null
+	private volatile PartnerDispatcher dispatcher; // executes requests in order per partner, or null
+	private volatile AdmissionControl admissionControl = AdmissionControl.fromSystemProperties();
+	private List<FrameCompression> compressions = new CopyOnWriteArrayList<FrameCompression>(); // compressions with a dictionary to accept
+
+	// maximum number of connection attempts queued by the operating system until accepted
+	private static final int ACCEPT_BACKLOG = Integer.getInteger("gsonrmi.acceptBacklog", 50);
 	
 	private static Logger logger = Logger.getLogger(RpcSocketListener.class.getName());
 
@@ -30,10 +65,122 @@ public class RpcSocketListener extends Thread {
 	 * @throws IOException	if there is an issue creating the server-side socket listener
 	 */
 	public RpcSocketListener(int port, RpcTarget rpcTarget, Gson gson, Interceptor interceptor) throws IOException {
+		this(port, rpcTarget, gson, interceptor, ExecutionMode.fromSystemProperty());
+	}
+
+	/**
+	 * Constructs a listener for JSON-RPC server connection requests, running
+	 * connection handlers in the given execution mode.
+	 * 
+	 * @param port			local port to listen for connection requests
+	 * @param rpcTarget		the RpcTarget of the associated JSON-RPC server implementation
+	 * @param gson			the Gson object to use throughout request processing
+	 * @param interceptor	a request/reply interceptor, or null if none is required
+	 * @param mode			the kind of thread to run each connection handler on
+	 * @throws IOException	if there is an issue creating the server-side socket listener
+	 * @throws UnsupportedOperationException	if the runtime does not support the mode
+	 */
+	public RpcSocketListener(int port, RpcTarget rpcTarget, Gson gson, Interceptor interceptor, ExecutionMode mode) throws IOException {
+		this(port, rpcTarget, gson, interceptor, mode.newExecutor(), true);
+		logger.info("running connection handlers in mode: " + mode);
+	}
+
+	/**
+	 * Constructs a listener for JSON-RPC server connection requests, running
+	 * connection handlers by the given executor. The executor needs to provide
+	 * a thread per connection handler, since each handler blocks until its
+	 * connection is closed. The requests pipelined by the handlers are
+	 * executed by a dedicated pool of this listener.
+	 * 
+	 * @param port			local port to listen for connection requests
+	 * @param rpcTarget		the RpcTarget of the associated JSON-RPC server implementation
+	 * @param gson			the Gson object to use throughout request processing
+	 * @param interceptor	a request/reply interceptor, or null if none is required
+	 * @param executor		the executor running the connection handlers; not shut down by this listener
+	 * @throws IOException	if there is an issue creating the server-side socket listener
+	 */
+	public RpcSocketListener(int port, RpcTarget rpcTarget, Gson gson, Interceptor interceptor, ExecutorService executor) throws IOException {
+		this(port, rpcTarget, gson, interceptor, executor, false);
+	}
+
+	private RpcSocketListener(int port, RpcTarget rpcTarget, Gson gson, Interceptor interceptor, ExecutorService executor, boolean ownExecutor) throws IOException {
 		this.rpcTarget = rpcTarget;
 		this.gson = gson;
 		this.interceptor = interceptor;
-		ss = new ServerSocket(port);
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+		// an own executor starts a thread per task, hence pipelined requests cannot starve
+		pipelineExecutor = ownExecutor ? executor : ExecutionMode.PLATFORM_THREAD.newExecutor();
+		ss = new ServerSocket(port, ACCEPT_BACKLOG);
+	}
+
+	/**
+	 * Returns the local port this listener listens on, e.g. in case it has been
+	 * created with port 0, i.e. an ephemeral port.
+	 * 
+	 * @return	the local port
+	 */
+	public int getLocalPort() {
+		return ss.getLocalPort();
+	}
+	
+	/**
+	 * Lets the requests of a batch received by any connection accepted from now
+	 * on be executed in parallel by the given executor. By default, the requests
+	 * of a batch are executed one after the other, in the order received. The
+	 * RpcTarget must be thread-safe for parallel execution.
+	 * 
+	 * @param batchExecutor	executor for the requests of a batch, or null to execute them in order;
+	 * 						not shut down by this listener
+	 */
+	public void setBatchExecutor(Executor batchExecutor) {
+		this.batchExecutor = batchExecutor;
+	}
+	
+	/**
+	 * Lets requests received by any connection accepted from now on be
+	 * executed by the given dispatcher, i.e. in order per partner, across all
+	 * connections of a partner, and in parallel for different partners. By
+	 * default, requests are executed in order per connection.
+	 * 
+	 * @param dispatcher	dispatcher of requests by partner, or null to execute them per connection
+	 */
+	public void setDispatcher(PartnerDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+	
+	/**
+	 * Lets connections accepted from now on compress their frames with the
+	 * given preset dictionary, in case the partner offers the very same one
+	 * (see FrameCompression). Otherwise, plain compression is negotiated. May
+	 * be called several times, e.g. to accept both a new and an old dictionary
+	 * while partners are upgraded; the dictionary added first is preferred.
+	 * 
+	 * @param dictionary	the dictionary to accept
+	 */
+	public void addFrameDictionary(byte[] dictionary) {
+		compressions.add(new FrameCompression(dictionary));
+	}
+
+	/**
+	 * Replaces the limits on concurrent connections and requests, which are
+	 * given by system properties by default (see AdmissionControl). Applies to
+	 * connections accepted from now on.
+	 * 
+	 * @param admissionControl	the limits to apply
+	 */
+	public void setAdmissionControl(AdmissionControl admissionControl) {
+		this.admissionControl = admissionControl;
+	}
+
+	/**
+	 * Returns the admission control of this listener, e.g. to observe the
+	 * current number of connections and requests.
+	 * 
+	 * @return	the admission control
+	 */
+	public AdmissionControl getAdmissionControl() {
+		return admissionControl;
 	}
 	
 	/**
@@ -43,19 +190,49 @@ public class RpcSocketListener extends Thread {
 	 */
 	public void shutdown() throws IOException {
 		ss.close();
+		if (ownExecutor)
+			executor.shutdown();
+		else
+			pipelineExecutor.shutdown();
 	}
 	
 	/**
 	 * Main loop of this connection listener. Listens for incoming connection
 	 * attempts. Accepts connections and creates an RpcConnectionHandler
-	 * to process requests from that connection.
+	 * to process requests from that connection. In case the limit of
+	 * concurrent connections has been reached, or no thread can be
+	 * provided for the handler, the connection is rejected right away.
 	 */
 	@Override
 	public void run() {
 		logger.info("listening for connections at port: " + ss.getLocalPort());
 		try {
 			while (true) {
-				new RpcConnectionHandler(ss.accept(), rpcTarget, gson, interceptor).start();
+				Socket socket = ss.accept();
+				AdmissionControl admission = admissionControl;
+				if (!admission.tryAcquireConnection()) {
+					reject(socket, "too many connections, retry later");
+					continue;
+				}
+				try {
+					RpcConnectionHandler handler = new RpcConnectionHandler(socket, rpcTarget, gson, interceptor);
+					handler.setBatchExecutor(batchExecutor);
+					handler.setPipelineExecutor(pipelineExecutor);
+					handler.setDispatcher(dispatcher);
+					handler.setAdmissionControl(admission);
+					handler.setCompressions(compressions);
+					executor.execute(handler);
+				}
+				catch (RejectedExecutionException | OutOfMemoryError e) {
+					// e.g. native threads are exhausted; keep listening, since capacity might free up
+					admission.releaseConnection();
+					reject(socket, "no thread available, retry later (" + e + ")");
+				}
+				catch (IOException e) {
+					// the connection has been lost right away
+					admission.releaseConnection();
+					socket.close();
+				}
 			}
 		}
 		catch (IOException e) {
@@ -67,5 +244,34 @@ public class RpcSocketListener extends Thread {
 		}
 	}
 
+	/**
+	 * Rejects a connection by sending a JSON-RPC error, which the client reads
+	 * instead of the reply to its handshake, and closing the connection.
+	 * 
+	 * @param socket	the connection to reject
+	 * @param reason	the reason, sent along with the error
+	 */
+	private void reject(Socket socket, String reason) {
+		logger.warning("rejecting connection from " + socket.getRemoteSocketAddress() + ": " + reason);
+		RpcResponse response = new RpcResponse();
+		response.error = new RpcError(RpcError.SERVER_OVERLOADED, reason);
+		try {
+			// a short message fits into the socket's send buffer, hence this does not block
+			OutputStream out = socket.getOutputStream();
+			out.write(gson.toJson(response).getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			socket.shutdownOutput();
+		}
+		catch (IOException e) {
+			// the client will notice the connection being closed anyway
+		}
+		finally {
+			try {
+				socket.close();
+			}
+			catch (IOException e) {
+			}
+		}
+	}
 
 }
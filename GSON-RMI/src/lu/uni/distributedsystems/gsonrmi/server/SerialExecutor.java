@@ -0,0 +1,99 @@
+package lu.uni.distributedsystems.gsonrmi.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An executor running its tasks one at a time, in the order submitted, on
+ * the threads of an underlying (shared) executor. It does not own a thread:
+ * while idle, it costs no more than an empty queue, and while busy, it
+ * occupies a single thread of the underlying executor, such that any number
+ * of serial executors may share a pool of a few threads. In case the pool
+ * rejects running the executor, its tasks are run by the submitting thread.
+ */
+public class SerialExecutor implements Executor {
+
+	private final Executor pool;
+	private final Runnable whenIdle;
+	private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+	private boolean active; // true while a task of this executor is submitted to the pool
+
+	/**
+	 * Constructs a serial executor running its tasks on the given executor.
+	 *
+	 * @param pool	the executor to run the tasks on
+	 */
+	public SerialExecutor(Executor pool) {
+		this(pool, null);
+	}
+
+	/**
+	 * Constructs a serial executor running its tasks on the given executor,
+	 * and notifying the given callback whenever it runs out of tasks.
+	 *
+	 * @param pool		the executor to run the tasks on
+	 * @param whenIdle	run whenever the last task queued has completed, or null
+	 */
+	public SerialExecutor(Executor pool, Runnable whenIdle) {
+		this.pool = pool;
+		this.whenIdle = whenIdle;
+	}
+
+	/**
+	 * Returns whether no task is queued or running.
+	 *
+	 * @return	true if this executor is idle
+	 */
+	public boolean isIdle() {
+		synchronized (tasks) {
+			return !active;
+		}
+	}
+
+	/**
+	 * Runs the given task once all tasks submitted before have completed.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		synchronized (tasks) {
+			tasks.add(task);
+			if (active)
+				return;
+			active = true;
+		}
+		try {
+			pool.execute(this::drain);
+		}
+		catch (RejectedExecutionException e) {
+			// e.g. the pool has been shut down; the tasks must not be stranded
+			drain();
+		}
+	}
+
+	// runs the tasks queued, one after the other; further tasks submitted meanwhile are run as well
+	private void drain() {
+		while (true) {
+			Runnable task;
+			synchronized (tasks) {
+				task = tasks.poll();
+				if (task == null) {
+					active = false;
+					break;
+				}
+			}
+			try {
+				task.run();
+			}
+			catch (RuntimeException e) {
+				// like a pool thread, survive the failure of a task
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+			}
+		}
+		if (whenIdle != null)
+			whenIdle.run();
+	}
+
+}
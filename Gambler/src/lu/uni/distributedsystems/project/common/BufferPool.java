@@ -0,0 +1,65 @@
+package lu.uni.distributedsystems.project.common;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of (direct) byte buffers of a fixed size, into which outgoing
+ * messages are serialized. A buffer is handed back to the pool once it has
+ * been written to the socket, such that sending a message allocates no
+ * buffers in the steady state. Direct buffers are written to a socket
+ * without being copied once more.
+ */
+class BufferPool {
+
+	static final int BUFFER_SIZE = 8 * 1024; // size of each buffer
+	private static final int MAX_POOLED = 256; // maximum number of free buffers kept
+
+	private static BufferPool instance = new BufferPool();
+
+	private Queue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+	private AtomicInteger pooled = new AtomicInteger(); // number of free buffers
+
+	/**
+	 * Returns the pool shared by all connections.
+	 *
+	 * @return The pool.
+	 */
+	static BufferPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Takes a buffer from the pool, allocating a new one if the pool is empty.
+	 *
+	 * @return A cleared buffer of BUFFER_SIZE bytes.
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Hands a buffer back to the pool. Buffers not taken from the pool are
+	 * ignored, as are buffers exceeding the number of free buffers kept.
+	 *
+	 * @param buffer a buffer no longer used
+	 */
+	void release(ByteBuffer buffer) {
+		if (!buffer.isDirect() || buffer.capacity() != BUFFER_SIZE)
+			return;
+		if (pooled.incrementAndGet() > MAX_POOLED) {
+			pooled.decrementAndGet();
+			return;
+		}
+		free.add(buffer);
+	}
+
+}
@@ -0,0 +1,130 @@
+package lu.uni.distributedsystems.project.common;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A writer encoding characters as UTF-8 straight into buffers taken from a
+ * <code>BufferPool</code>, taking further buffers as needed. Used to stream
+ * a message through a <code>JsonWriter</code> without building a String of
+ * the whole message first. Each writer is used for a single message.
+ */
+class ByteBufferWriter extends Writer {
+
+	private BufferPool pool;
+	private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(1);
+	private ByteBuffer current;
+	private CharBuffer pair = CharBuffer.allocate(2); // a surrogate pair split across two writes
+	private boolean finished;
+
+	/**
+	 * Creates a writer taking buffers from the given pool.
+	 *
+	 * @param pool the pool to take buffers from
+	 */
+	ByteBufferWriter(BufferPool pool) {
+		this.pool = pool;
+		current = pool.acquire();
+		buffers.add(current);
+	}
+
+	/**
+	 * Serializes an object as JSON into pooled buffers.
+	 *
+	 * @param gson   gson object to serialize with
+	 * @param object object to serialize
+	 * @param type   type of the object
+	 * @return The buffers holding the JSON text, ready to be written; to be
+	 *         handed back to the pool once written.
+	 */
+	static List<ByteBuffer> toJson(Gson gson, Object object, Class<?> type) {
+		ByteBufferWriter writer = new ByteBufferWriter(BufferPool.getInstance());
+		gson.toJson(object, type, new JsonWriter(writer));
+		return writer.finish();
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		encode(CharBuffer.wrap(cbuf, off, len));
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		encode(CharBuffer.wrap(str, off, off + len));
+	}
+
+	@Override
+	public void write(int c) {
+		encode(CharBuffer.wrap(new char[] { (char) c }));
+	}
+
+	/**
+	 * Completes the message.
+	 *
+	 * @return The buffers holding the encoded message, flipped for being written.
+	 */
+	List<ByteBuffer> finish() {
+		if (!finished) {
+			finished = true;
+			pair.flip();
+			encode(pair, true);
+			while (encoder.flush(current).isOverflow())
+				next();
+			for (ByteBuffer buffer : buffers)
+				buffer.flip();
+		}
+		return buffers;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private void encode(CharBuffer in) {
+		// complete a surrogate pair whose high surrogate ended the previous write
+		while (pair.position() > 0 && in.hasRemaining()) {
+			pair.put(in.get());
+			pair.flip();
+			encode(pair, false);
+			pair.compact();
+		}
+
+		encode(in, false);
+
+		// a trailing high surrogate is encoded along with the next write
+		if (in.hasRemaining())
+			pair.put(in.get());
+	}
+
+	private void encode(CharBuffer in, boolean endOfInput) {
+		CoderResult result;
+		while ((result = encoder.encode(in, current, endOfInput)).isOverflow())
+			next();
+		if (result.isError())
+			throw new IllegalStateException("cannot encode: " + result);
+	}
+
+	// continues with another buffer
+	private void next() {
+		current = pool.acquire();
+		buffers.add(current);
+	}
+
+}
@@ -0,0 +1,37 @@
+package lu.uni.distributedsystems.project.common;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Preset dictionary for compressing the frames exchanged between gamblers
+ * and bookies (see FrameCompression): the method names and field keys
+ * frequently found in their frames. The dictionary is offered, respectively
+ * accepted, per connection by its id; a partner holding a different
+ * dictionary, e.g. a former version of this one, falls back to compressing
+ * without a dictionary.
+ */
+public final class FrameDictionary {
+
+	// the most frequent strings come last
+	private static final String DICTIONARY = "sayHelloToBookie sayHelloToGambler connect invokeCommand setModeOfHost "
+			+ "startBetPhase endBetPhase winningTeam payout teamA teamB oddsA oddsB "
+			+ "setOddsBatch setOdds REJECTED_LIMIT_EXCEEDED REJECTED_ODDS_MISMATCH ACCEPTED "
+			+ "{\"code\":-32000,\"message\":\"Invocation exception\",\"data\": "
+			+ "{\"bookieID\":\"\",\"matchID\":,\"team\":\"\",\"odds\":,\"limit\":,\"stake\": "
+			+ ",\"error\":{\"code\":,\"message\":\"\",\"data\": "
+			+ "{\"jsonrpc\":\"2.0\",\"result\":,\"id\":}"
+			+ "{\"jsonrpc\":\"2.0\",\"method\":\"bet\",\"params\":[\"\",],\"id\":,\"idempotencyKey\":\"\",\"timeout\":}";
+
+	private FrameDictionary() {
+	}
+
+	/**
+	 * Returns the dictionary, to be passed to a connection or listener.
+	 * 
+	 * @return The dictionary, encoded as UTF-8.
+	 */
+	public static byte[] getBytes() {
+		return DICTIONARY.getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,66 @@
+package lu.uni.distributedsystems.project.common;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a stream of characters into complete top-level JSON values, i.e.
+ * objects or arrays, as they arrive in arbitrary chunks from a socket. The
+ * framer only tracks nesting depth and string literals, without parsing the
+ * values; strings may be enclosed in double as well as in single quotes, as
+ * accepted by the lenient Gson parser.
+ */
+class JsonFramer {
+
+	private StringBuilder frame = new StringBuilder(); // characters of the incomplete frame
+	private int depth;       // nesting depth of objects and arrays
+	private char quote;      // quote character of the current string literal, or 0 outside strings
+	private boolean escaped; // true if the previous character was a backslash inside a string
+
+	/**
+	 * Consumes all remaining characters of the buffer.
+	 *
+	 * @param chars the characters received
+	 * @return The frames completed by the characters, possibly none.
+	 * @throws IllegalStateException if the characters cannot be framed, e.g.
+	 *         since a top-level value is neither an object nor an array
+	 */
+	List<String> feed(CharBuffer chars) {
+		List<String> frames = new ArrayList<String>(1);
+
+		while (chars.hasRemaining()) {
+			char c = chars.get();
+
+			if (depth == 0) {
+				// skip whitespace (and separators) between frames
+				if (Character.isWhitespace(c) || c == ',')
+					continue;
+				if (c != '{' && c != '[')
+					throw new IllegalStateException("unexpected character between JSON values: " + c);
+			}
+			frame.append(c);
+
+			if (quote != 0) {
+				if (escaped)
+					escaped = false;
+				else if (c == '\\')
+					escaped = true;
+				else if (c == quote)
+					quote = 0;
+			}
+			else if (c == '"' || c == '\'')
+				quote = c;
+			else if (c == '{' || c == '[')
+				depth++;
+			else if (c == '}' || c == ']') {
+				if (--depth == 0) {
+					frames.add(frame.toString());
+					frame.setLength(0);
+				}
+			}
+		}
+		return frames;
+	}
+
+}
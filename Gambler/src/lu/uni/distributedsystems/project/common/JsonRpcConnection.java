@@ -1,11 +1,21 @@
 package lu.uni.distributedsystems.project.common;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.code.gsonrmi.Parameter;
@@ -15,16 +25,44 @@ import com.google.code.gsonrmi.serializer.ExceptionSerializer;
 import com.google.code.gsonrmi.serializer.ParameterSerializer;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
-import com.google.gson.stream.JsonReader;
 
-import lu.uni.distributedsystems.gsonrmi.server.PartnerID;
+import lu.uni.distributedsystems.gsonrmi.logging.LazyJson;
+import lu.uni.distributedsystems.gsonrmi.server.FrameCompression;
 
 /**
  * Base class for any JSON-RPC connection. This class implements the
  * basic functionality in terms of both connection management with a
  * JSON-RPC server, as well as for JSON-RPC request processing.
- * 
+ * <p>
+ * A connection may consist of a pool of several socket connections
+ * ("channels") with the same JSON-RPC server, each performing the same
+ * handshake. Every request is sent via the channel having the fewest
+ * outstanding calls, such that a slow response only delays the calls
+ * queued behind it on the same channel. A channel that is lost is
+ * replaced in the background, keeping the pool at its size; failed attempts
+ * to reconnect are repeated with jittered exponential backoff. The sockets
+ * of all connections are driven by a single selector thread (see
+ * <code>RpcClientEngine</code>), hence no thread is blocked per connection
+ * or per outstanding call.
+ * <p>
+ * Requests carrying an idempotency key are resent transparently in case
+ * the connection is lost before their response has been received. The
+ * server answers a resent request from its result table, rather than
+ * executing it a second time. A request failing with a
+ * <code>RequestNotSentException</code> has not been written to any socket,
+ * in none of its attempts; any other failure leaves open whether the server
+ * has received, and executed, the request.
+ * <p>
+ * Several requests may be sent as a batch, i.e. as one JSON array, which
+ * the server answers by one array of responses. A batch thus costs a single
+ * network round trip, however many requests it contains.
+ * <p>
+ * Every call has a deadline, given by the call timeout of the connection
+ * unless specified per call. A call whose response has not arrived by then
+ * fails with a <code>TimeoutException</code>, and is not resent. The time
+ * remaining is sent along with the request, such that the server skips
+ * requests nobody is waiting for any more.
+ *
  * @author steffen
  *
  */
@@ -33,26 +71,66 @@ public class JsonRpcConnection {
 	private String serverIP;  // IP address of the JSON-RPC server
 	private int serverPort;   // port number of the JSON-RPC server
 	private String partnerID; // our own partnerID, used on JSON-RPC server-side to uniquely identify this sender, specially in case of necessary re-connections
+	private int poolSize;     // number of socket connections with the JSON-RPC server
 	
-	private Socket socket;         // socket connection with the JSON-RPC server
-	private Gson gson;             // gson object to use e.g. for serialization/deserialization
-	private Writer writer;         // writer to write to socket's stream
-	private JsonReader jsonReader; // JSON reader to read from socket's stream
+	private Gson gson;        // gson object to use e.g. for serialization/deserialization
+
+	private List<RpcChannel> channels = new CopyOnWriteArrayList<RpcChannel>(); // open socket connections with the JSON-RPC server
+	private volatile boolean closed; // true once the connection has been closed on purpose
+
+	private AtomicLong nextRequestID = new AtomicLong(1); // id of the next request sent via this connection
+
+	private volatile FrameCompression compression = FrameCompression.PLAIN; // compression offered in the handshake of each channel
+
+	// time to wait for a response by default, in milliseconds; 0 to wait forever
+	private volatile long callTimeoutMillis = Long.getLong("gambler.callTimeoutMillis", 30000);
+
+	private static final int MAX_ATTEMPTS = 10;            // maximum number of attempts to send an idempotent request
+	private static final long MIN_BACKOFF_MILLIS = 50;     // delay before the first repeated attempt to (re)connect or resend
+	private static final long MAX_BACKOFF_MILLIS = 5000;   // upper bound of the delay between attempts
+	private static final long NO_DEADLINE = Long.MAX_VALUE; // deadline of calls waiting forever
+
+	// schedules reconnects, resent requests and deadlines of calls, shared by all connections
+	private static ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(2, runnable -> {
+		Thread thread = new Thread(runnable, "json-rpc-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		// most deadlines are cancelled, since the response arrives in time
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
 
 	private static Logger logger = Logger.getLogger(JsonRpcConnection.class.getName());
 	
 	/**
-	 * Initialize a new JSON-RPC connection with the specified JSON-RPC server. 
+	 * Initialize a new JSON-RPC connection with the specified JSON-RPC server,
+	 * using a single socket connection.
 	 * 
 	 * @param serverIP   IP address of the remote JSON-RPC server
 	 * @param serverPort port on which the remote JSON-RPC server listens on
 	 * @param partnerID  own id, i.e. the id of the enclosing bookie or gambler which establishes the connection
 	 */
 	public JsonRpcConnection(String serverIP, int serverPort, String partnerID) {
+		this(serverIP, serverPort, partnerID, 1);
+	}
+
+	/**
+	 * Initialize a new JSON-RPC connection with the specified JSON-RPC server,
+	 * using a pool of socket connections.
+	 * 
+	 * @param serverIP   IP address of the remote JSON-RPC server
+	 * @param serverPort port on which the remote JSON-RPC server listens on
+	 * @param partnerID  own id, i.e. the id of the enclosing bookie or gambler which establishes the connection
+	 * @param poolSize   number of socket connections to keep established
+	 */
+	public JsonRpcConnection(String serverIP, int serverPort, String partnerID, int poolSize) {
 		// remember IP and port of the JSON-RPC server as well as our partnerID, also in case we need to re-connect
 		this.serverIP = serverIP;
 		this.serverPort = serverPort;
 		this.partnerID = partnerID;
+		this.poolSize = Math.max(1, poolSize);
 
 		// create an instance of Gson, the primary class for using the Gson libraries
 		gson = new GsonBuilder()
@@ -64,33 +142,68 @@ public class JsonRpcConnection {
 	public Gson getGson() {
 		return gson;
 	}
+
+	/**
+	 * Returns the time to wait for the response to a call, unless specified
+	 * per call.
+	 * 
+	 * @return The timeout in milliseconds, or 0 if calls wait forever.
+	 */
+	public long getCallTimeout() {
+		return callTimeoutMillis;
+	}
+
+	/**
+	 * Sets the time to wait for the response to a call, unless specified per
+	 * call. Applies to calls made from now on.
+	 * 
+	 * @param callTimeoutMillis timeout in milliseconds, or 0 to wait forever
+	 */
+	public void setCallTimeout(long callTimeoutMillis) {
+		this.callTimeoutMillis = callTimeoutMillis;
+	}
+
+	/**
+	 * Sets the preset dictionary to compress frames with, offered to the
+	 * server in the handshake of each channel (see FrameCompression). In case
+	 * the server does not hold the same dictionary, frames are compressed
+	 * without one. Applies to channels opened from now on.
+	 * 
+	 * @param dictionary the dictionary, or null to compress without one
+	 */
+	public void setFrameDictionary(byte[] dictionary) {
+		compression = dictionary != null ? new FrameCompression(dictionary) : FrameCompression.PLAIN;
+	}
+
+	/**
+	 * Returns the number of socket connections currently established.
+	 * 
+	 * @return The number of open channels.
+	 */
+	public int getOpenChannels() {
+		return channels.size();
+	}
+
+	/**
+	 * Returns whether the connection has been closed on purpose, hence no
+	 * request will be sent any more.
+	 * 
+	 * @return True once <code>closeConnection</code> has been called.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
 	
 	/**
-	 * Establish a connection with the JSON-RPC server via a socket, and
-	 * create reader and writer objects to send and received data.
+	 * Establish the pool of socket connections with the JSON-RPC server.
 	 */
 	public void establishSocketConnection() {
-		// setup a socket connection to the JSON-RPC server
-		try {
-			socket = new Socket(serverIP, serverPort);
-			logger.info("Connection with JSON-RPC server opened at local endpoint " + socket.getLocalAddress().getHostAddress() + ":" + socket.getLocalPort());
-			// create a writer to send JSON-RPC requests to the JSON-RPC server
-			writer = new OutputStreamWriter(socket.getOutputStream(), "utf-8");
-			// create a JsonReader object to receive JSON-RPC response
-			jsonReader = new JsonReader(new InputStreamReader(socket.getInputStream(), "utf-8"));
-			// send across our partnerID, which identifies this sender side uniquely, specially
-			// in case of a re-connect; this way, the receiving JSON-RPC server can retain
-			// the mapping of connections onto a partnerID
-			PartnerID partnerIDObject = new PartnerID(partnerID);
-			
-			writer.write(gson.toJson(partnerIDObject));
-			writer.flush();
-			// response is ignored at this point
-			gson.fromJson(jsonReader, JsonObject.class);
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+		for (int i = 0; i < poolSize; i++) {
+			try {
+				openChannel();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 	
@@ -98,55 +211,362 @@ public class JsonRpcConnection {
 	 * Close the connection with the JSON-RPC server.
 	 */
 	public void closeConnection() {
-		try {
-			socket.close();
-		} catch (IOException e) {
-			logger.warning("problem closing socket connection with JSON-RPC server at " + serverIP + ":" + serverPort);
-			e.printStackTrace();
+		closed = true;
+		for (RpcChannel channel : channels)
+			channel.close();
+	}
+
+	private void openChannel() throws IOException {
+		RpcChannel channel = new RpcChannel(serverIP, serverPort, partnerID, gson, compression, this::channelLost);
+		channel.open();
+		channels.add(channel);
+	}
+
+	// removes a lost channel from the pool, opening a spare one in its place
+	private void channelLost(RpcChannel channel) {
+		channels.remove(channel);
+		reconnect(0);
+	}
+
+	// opens a channel, repeating failed attempts with backoff until the connection is closed
+	private void reconnect(int attempt) {
+		if (closed)
+			return;
+
+		scheduler.schedule(() -> {
+			if (closed)
+				return;
+			try {
+				openChannel();
+				logger.info("reconnected with JSON-RPC server at " + serverIP + ":" + serverPort);
+			} catch (IOException e) {
+				logger.warning("could not reconnect with JSON-RPC server at " + serverIP + ":" + serverPort + ": " + e.getMessage());
+				reconnect(attempt + 1);
+			}
+		}, attempt == 0 ? 0 : backoff(attempt - 1), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the delay before the given repeated attempt, doubling with each
+	 * attempt up to an upper bound. The delay is picked randomly from the upper
+	 * half of that range, such that clients losing their connections at the
+	 * same time do not reconnect in lockstep.
+	 * 
+	 * @param attempt number of attempts that have failed so far, minus one
+	 * @return The delay in milliseconds.
+	 */
+	static long backoff(int attempt) {
+		long ceiling = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempt, 20));
+		return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+	}
+
+	// returns the open channel with the fewest outstanding calls, or null if there is none
+	private RpcChannel leastLoadedChannel() {
+		RpcChannel leastLoaded = null;
+		for (RpcChannel channel : channels) {
+			if (channel.isOpen() && (leastLoaded == null || channel.getLoad() < leastLoaded.getLoad()))
+				leastLoaded = channel;
 		}
+		return leastLoaded;
 	}
 
 	/**
-	 * Main method for JSON-RPC request processing.
+	 * Sends a JSON-RPC request without waiting for the response. Any number of
+	 * requests may be outstanding on this connection at a time; responses are
+	 * matched to their requests via the request id.
 	 * 
 	 * @param method name of the JSON-RPC method to call
 	 * @param params array of parameters to pass as arguments
-	 * @return The result of the JSON-RPC method invocation.
+	 * @return A future completed with the response, or completed exceptionally
+	 *         in case the connection is lost before the response has been received
+	 *         or the call timeout elapses.
 	 */
-	// TODO adapt this method to properly handle sending JSON-RPC requests
-	protected RpcResponse handleJsonRpcRequest(String method, Parameter[] params) {
+	protected CompletableFuture<RpcResponse> handleJsonRpcRequestAsync(String method, Parameter[] params) {
+		return handleJsonRpcRequestAsync(method, params, callTimeoutMillis);
+	}
+
+	/**
+	 * Sends a JSON-RPC request without waiting for the response, failing the
+	 * call unless the response arrives within the given time.
+	 * 
+	 * @param method        name of the JSON-RPC method to call
+	 * @param params        array of parameters to pass as arguments
+	 * @param timeoutMillis time to wait for the response in milliseconds, or 0 to wait forever
+	 * @return A future completed with the response, or completed exceptionally
+	 *         in case the connection is lost before the response has been received
+	 *         or the timeout elapses.
+	 */
+	protected CompletableFuture<RpcResponse> handleJsonRpcRequestAsync(String method, Parameter[] params, long timeoutMillis) {
+		return send(method, params, null, deadline(timeoutMillis));
+	}
+
+	/**
+	 * Sends a JSON-RPC request carrying an idempotency key without waiting for
+	 * the response. In case the connection is lost before the response has been
+	 * received, the request is resent with the same idempotency key, once a
+	 * connection is available again. The server executes the request at most once.
+	 * 
+	 * @param method         name of the JSON-RPC method to call
+	 * @param params         array of parameters to pass as arguments
+	 * @param idempotencyKey key identifying the request uniquely among all requests of this partner
+	 * @return A future completed with the response, or completed exceptionally
+	 *         in case the request could not be delivered after several attempts
+	 *         or the call timeout elapses; with a <code>RequestNotSentException</code>
+	 *         only if no attempt has been written to a socket.
+	 */
+	protected CompletableFuture<RpcResponse> handleIdempotentJsonRpcRequestAsync(String method, Parameter[] params, String idempotencyKey) {
+		return handleIdempotentJsonRpcRequestAsync(method, params, idempotencyKey, callTimeoutMillis);
+	}
+
+	/**
+	 * Sends a JSON-RPC request carrying an idempotency key without waiting for
+	 * the response, resending it as needed until the given time has elapsed.
+	 * 
+	 * @param method         name of the JSON-RPC method to call
+	 * @param params         array of parameters to pass as arguments
+	 * @param idempotencyKey key identifying the request uniquely among all requests of this partner
+	 * @param timeoutMillis  time to wait for the response in milliseconds, including all
+	 *                       attempts, or 0 to wait forever
+	 * @return A future completed with the response, or completed exceptionally
+	 *         in case the request could not be delivered after several attempts
+	 *         or the timeout elapses; with a <code>RequestNotSentException</code>
+	 *         only if no attempt has been written to a socket.
+	 */
+	protected CompletableFuture<RpcResponse> handleIdempotentJsonRpcRequestAsync(String method, Parameter[] params, String idempotencyKey, long timeoutMillis) {
+		CompletableFuture<RpcResponse> result = new CompletableFuture<RpcResponse>();
+		attempt(method, params, idempotencyKey, deadline(timeoutMillis), 0, new AtomicBoolean(), result);
+		return result;
+	}
+
+	private void attempt(String method, Parameter[] params, String idempotencyKey, long deadline, int attempt, AtomicBoolean sent, CompletableFuture<RpcResponse> result) {
+		send(method, params, idempotencyKey, deadline).whenComplete((response, ex) -> {
+			if (ex != null && !(ex instanceof RequestNotSentException))
+				sent.set(true);
+
+			if (ex == null)
+				result.complete(response);
+			else if (closed || attempt + 1 >= MAX_ATTEMPTS || ex instanceof TimeoutException)
+				result.completeExceptionally(failure(idempotencyKey, ex, sent.get()));
+			else {
+				// the first resend goes via another channel of the pool right away, if there is one
+				long delay = attempt == 0 ? 0 : backoff(attempt - 1);
+				logger.info("resending request " + idempotencyKey + " in " + delay + " ms after: " + ex);
+				scheduler.schedule(() -> attempt(method, params, idempotencyKey, deadline, attempt + 1, sent, result),
+						delay, TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+
+	/**
+	 * Returns the failure to report for a request whose last attempt failed
+	 * with the given exception. Once an earlier attempt may have been received
+	 * by the server, the request is not reported as not sent, even if the last
+	 * attempt was not.
+	 * 
+	 * @param idempotencyKey idempotency key of the request
+	 * @param ex             failure of the last attempt
+	 * @param sent           true if any attempt may have been written to a socket
+	 * @return The failure of the request.
+	 */
+	private static Throwable failure(String idempotencyKey, Throwable ex, boolean sent) {
+		if (sent && ex instanceof RequestNotSentException)
+			return new IOException("request " + idempotencyKey + " was sent before, but its response has not been received: " + ex.getMessage(), ex);
+		return ex;
+	}
+
+	/**
+	 * Sends a batch of JSON-RPC requests in one frame without waiting for the
+	 * responses. The method, params and (optional) idempotency key of each
+	 * request need to be set by the caller; ids are assigned by this connection.
+	 * In case the connection is lost before the responses have been received,
+	 * the requests carrying an idempotency key are resent as a batch of their
+	 * own, while the others fail. As with a single request, a request fails
+	 * with a <code>RequestNotSentException</code> only if none of its attempts
+	 * has been written to a socket.
+	 * 
+	 * @param requests the requests to send
+	 * @return Futures completed with the responses, in the order of the requests,
+	 *         or completed exceptionally in case a request could not be delivered
+	 *         or the call timeout elapses.
+	 */
+	protected List<CompletableFuture<RpcResponse>> handleJsonRpcBatchAsync(List<RpcRequest> requests) {
+		return handleJsonRpcBatchAsync(requests, callTimeoutMillis);
+	}
+
+	/**
+	 * Sends a batch of JSON-RPC requests in one frame without waiting for the
+	 * responses, failing the calls unless their responses arrive within the
+	 * given time.
+	 * 
+	 * @param requests      the requests to send
+	 * @param timeoutMillis time to wait for the responses in milliseconds, including all
+	 *                      attempts, or 0 to wait forever
+	 * @return Futures completed with the responses, in the order of the requests,
+	 *         or completed exceptionally in case a request could not be delivered
+	 *         or the timeout elapses.
+	 */
+	protected List<CompletableFuture<RpcResponse>> handleJsonRpcBatchAsync(List<RpcRequest> requests, long timeoutMillis) {
+		List<CompletableFuture<RpcResponse>> results = new ArrayList<CompletableFuture<RpcResponse>>(requests.size());
+		for (int i = 0; i < requests.size(); i++)
+			results.add(new CompletableFuture<RpcResponse>());
+		if (!requests.isEmpty())
+			attempt(new ArrayList<RpcRequest>(requests), deadline(timeoutMillis), results, new boolean[requests.size()], 0);
+		return results;
+	}
+
+	// sent tells for each request whether any of its earlier attempts may have been written to a socket
+	private void attempt(List<RpcRequest> requests, long deadline, List<CompletableFuture<RpcResponse>> results, boolean[] sent, int attempt) {
+		List<CompletableFuture<RpcResponse>> calls = send(requests, deadline);
+		CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[calls.size()])).whenComplete((ignored, failure) -> {
+			List<RpcRequest> resend = new ArrayList<RpcRequest>();
+			List<CompletableFuture<RpcResponse>> resendResults = new ArrayList<CompletableFuture<RpcResponse>>();
+			boolean[] resendSent = new boolean[calls.size()];
+			Throwable cause = null;
+			for (int i = 0; i < calls.size(); i++) {
+				CompletableFuture<RpcResponse> call = calls.get(i);
+				Throwable ex = call.handle((response, e) -> e).join();
+				boolean sentSoFar = sent[i] || (ex != null && !(ex instanceof RequestNotSentException));
+				if (ex == null)
+					results.get(i).complete(call.join());
+				else if (requests.get(i).idempotencyKey == null || closed || attempt + 1 >= MAX_ATTEMPTS || ex instanceof TimeoutException)
+					results.get(i).completeExceptionally(failure(requests.get(i).idempotencyKey, ex, sentSoFar));
+				else {
+					resendSent[resend.size()] = sentSoFar;
+					resend.add(requests.get(i));
+					resendResults.add(results.get(i));
+					cause = ex;
+				}
+			}
+			if (resend.isEmpty())
+				return;
+
+			long delay = attempt == 0 ? 0 : backoff(attempt - 1);
+			logger.info("resending batch of " + resend.size() + " requests in " + delay + " ms after: " + cause);
+			scheduler.schedule(() -> attempt(resend, deadline, resendResults, resendSent, attempt + 1), delay, TimeUnit.MILLISECONDS);
+		});
+	}
+
+	private List<CompletableFuture<RpcResponse>> send(List<RpcRequest> requests, long deadline) {
+		Long timeout = remainingMillis(deadline);
+		long[] ids = new long[requests.size()];
+		RpcRequest[] batch = new RpcRequest[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			// copied per attempt, since sent requests may still be serialized for logging
+			ids[i] = nextRequestID.getAndIncrement();
+			batch[i] = new RpcRequest();
+			batch[i].method = requests.get(i).method;
+			batch[i].params = requests.get(i).params;
+			batch[i].id = new Parameter(ids[i]);
+			batch[i].idempotencyKey = requests.get(i).idempotencyKey;
+			batch[i].timeout = timeout;
+		}
+
+		RpcChannel channel = leastLoadedChannel();
+		if (channel == null || (timeout != null && timeout <= 0)) {
+			List<CompletableFuture<RpcResponse>> calls = new ArrayList<CompletableFuture<RpcResponse>>(ids.length);
+			for (int i = 0; i < ids.length; i++)
+				calls.add(channel == null ? notConnected() : timedOut(ids[i]));
+			return calls;
+		}
+
+		// serialized straight into pooled buffers, without building a String first
+		List<ByteBuffer> frame = ByteBufferWriter.toJson(gson, batch, RpcRequest[].class);
+		logger.log(Level.INFO, "sending batch: {0}", new LazyJson(gson, batch));
+		List<CompletableFuture<RpcResponse>> calls = channel.send(ids, frame);
+		expire(channel, ids, calls, timeout);
+		return calls;
+	}
+
+	private CompletableFuture<RpcResponse> send(String method, Parameter[] params, String idempotencyKey, long deadline) {
 		RpcRequest request = new RpcRequest();
-		RpcResponse response = null;
+		long id = nextRequestID.getAndIncrement();
+		Long timeout = remainingMillis(deadline);
 		
 		request.method = method;
 		request.params = params;
-		
-		// TODO make sure to assign an appropriate message-id
-		
-		switch (method) {
-		case "connect":
-			request.id = new Parameter(1);
-			break;
-		case "bet":
-			request.id = new Parameter(2);
-			break;
-			// Add when creating new types of requests
-		}
+		request.id = new Parameter(id);
+		request.idempotencyKey = idempotencyKey;
+		request.timeout = timeout;
 
-		try {
-			logger.info("sending request: " + gson.toJson(request));
+		RpcChannel channel = leastLoadedChannel();
+		if (channel == null)
+			return notConnected();
+		if (timeout != null && timeout <= 0)
+			return timedOut(id);
+
+		// serialized straight into pooled buffers, without building a String first
+		List<ByteBuffer> frame = ByteBufferWriter.toJson(gson, request, RpcRequest.class);
+		logger.log(Level.INFO, "sending request: {0}", new LazyJson(gson, request));
+		CompletableFuture<RpcResponse> call = channel.send(id, frame);
+		expire(channel, new long[] { id }, Collections.singletonList(call), timeout);
+		return call;
+	}
+
+	// returns the deadline of a call waiting the given time, as given by System.nanoTime()
+	private static long deadline(long timeoutMillis) {
+		return timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : NO_DEADLINE;
+	}
+
+	// returns the time left until the deadline in milliseconds, or null if there is none
+	private static Long remainingMillis(long deadline) {
+		if (deadline == NO_DEADLINE)
+			return null;
+		return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+	}
 
-			// attempting to send the request via the writer to
-			// the JSON-RPC server might throw an IOException
-			writer.write(gson.toJson(request));
-			writer.flush();
+	// fails the calls still pending once the timeout elapses, unless it is null
+	private void expire(RpcChannel channel, long[] ids, List<CompletableFuture<RpcResponse>> calls, Long timeout) {
+		if (timeout == null)
+			return;
 
-			// in case of a connection loss, the following call will throw an exception
-			response = gson.fromJson(jsonReader, RpcResponse.class);
+		ScheduledFuture<?> timer = scheduler.schedule(() -> {
+			for (long id : ids)
+				channel.fail(id, new TimeoutException("no response to request " + id + " within " + timeout + " ms"));
+		}, timeout, TimeUnit.MILLISECONDS);
+		CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[calls.size()]))
+				.whenComplete((ignored, ex) -> timer.cancel(false));
+	}
+
+	// returns a call failed since its deadline passed before it could be sent; being a
+	// TimeoutException rather than a RequestNotSentException, it errs on the safe side
+	private static CompletableFuture<RpcResponse> timedOut(long id) {
+		CompletableFuture<RpcResponse> call = new CompletableFuture<RpcResponse>();
+		call.completeExceptionally(new TimeoutException("deadline of request " + id + " passed before sending it"));
+		return call;
+	}
+
+	// returns a call failed since no channel is open, hence its request is not sent
+	private CompletableFuture<RpcResponse> notConnected() {
+		CompletableFuture<RpcResponse> call = new CompletableFuture<RpcResponse>();
+		call.completeExceptionally(new RequestNotSentException("not connected with JSON-RPC server at " + serverIP + ":" + serverPort));
+		return call;
+	}
+
+	/**
+	 * Main method for JSON-RPC request processing. Sends a JSON-RPC request and
+	 * waits for its response.
+	 * 
+	 * @param method name of the JSON-RPC method to call
+	 * @param params array of parameters to pass as arguments
+	 * @return The result of the JSON-RPC method invocation, or null if the
+	 *         connection to the JSON-RPC server is lost or the call timeout elapses.
+	 */
+	protected RpcResponse handleJsonRpcRequest(String method, Parameter[] params) {
+		RpcResponse response = null;
 
-			logger.info("received response: " + gson.toJson(response) + " for request: " + gson.toJson(request));
+		try {
+			response = handleJsonRpcRequestAsync(method, params).get();
 		}
-		catch (Exception ex) {
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex) {
+			// the JSON-RPC server did not answer in time, e.g. since overloaded
+			if (ex.getCause() instanceof TimeoutException) {
+				System.err.println("Your last request was not answered in time. Try again in a few moments.");
+				return null;
+			}
+
 			// TODO handle lost connections
 			// connection to JSON-RPC server is lost
 			
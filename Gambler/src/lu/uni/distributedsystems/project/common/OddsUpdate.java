@@ -0,0 +1,53 @@
+package lu.uni.distributedsystems.project.common;
+
+/**
+ * A single odds update, i.e. the new odds of one team of a match, as sent
+ * by a bookie within a batch of updates.
+ */
+public class OddsUpdate {
+
+	private String bookieID;
+	private int matchID;
+	private String team;
+	private float odds;
+
+	public OddsUpdate(String bookieID, int matchID, String team, float odds) {
+		this.setBookieID(bookieID);
+		this.setMatchID(matchID);
+		this.setTeam(team);
+		this.setOdds(odds);
+	}
+
+	public String getBookieID() {
+		return bookieID;
+	}
+
+	public void setBookieID(String bookieID) {
+		this.bookieID = bookieID;
+	}
+
+	public int getMatchID() {
+		return matchID;
+	}
+
+	public void setMatchID(int matchID) {
+		this.matchID = matchID;
+	}
+
+	public String getTeam() {
+		return team;
+	}
+
+	public void setTeam(String team) {
+		this.team = team;
+	}
+
+	public float getOdds() {
+		return odds;
+	}
+
+	public void setOdds(float odds) {
+		this.odds = odds;
+	}
+
+}
@@ -0,0 +1,31 @@
+package lu.uni.distributedsystems.project.common;
+
+/**
+ * Enumeration of possibilities when a bookie updates the odds of a match.
+ * Each possibility has a fixed code, by which it is reported to the bookie
+ * in the result of a batch of updates; the codes must not be changed, and
+ * new possibilities must get new codes.
+ */
+public enum OddsUpdateResult {
+	
+	UPDATED_TEAM_A(0),
+	UPDATED_TEAM_B(1),
+	REJECTED_UNKNOWN_MATCH(2),
+	REJECTED_UNKNOWN_TEAM(3);
+
+	private final int code; // code reported to the bookie
+
+	private OddsUpdateResult(int code) {
+		this.code = code;
+	}
+
+	/**
+	 * Returns the code by which this result is reported to the bookie.
+	 * 
+	 * @return The stable code of this result.
+	 */
+	public int getCode() {
+		return code;
+	}
+
+}
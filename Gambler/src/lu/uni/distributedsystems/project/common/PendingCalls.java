@@ -0,0 +1,119 @@
+package lu.uni.distributedsystems.project.common;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import com.google.code.gsonrmi.RpcResponse;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Table of the calls awaiting their response on a JSON-RPC connection, by
+ * request id. Responses may arrive in any order; each one completes the call
+ * whose request carries the same id. Responses whose id is unknown, e.g.
+ * since the call has been failed in the meantime, or missing are reported
+ * to the caller rather than completing any call.
+ */
+class PendingCalls {
+
+	private Map<Long, CompletableFuture<RpcResponse>> calls = new ConcurrentHashMap<Long, CompletableFuture<RpcResponse>>();
+
+	// set once all calls have been failed; later registrations fail immediately
+	private volatile Exception failure;
+
+	/**
+	 * Registers a call before its request is sent, since the response might
+	 * arrive immediately.
+	 *
+	 * @param id id of the request
+	 * @return A future completed with the response.
+	 */
+	CompletableFuture<RpcResponse> register(long id) {
+		CompletableFuture<RpcResponse> call = new CompletableFuture<RpcResponse>();
+		calls.put(id, call);
+
+		// the table might have been failed concurrently, after checking for failure
+		Exception cause = failure;
+		if (cause != null && calls.remove(id) != null)
+			call.completeExceptionally(cause);
+		return call;
+	}
+
+	/**
+	 * Fails a single call, e.g. since its request could not be sent.
+	 *
+	 * @param id    id of the request
+	 * @param cause reason for the failure
+	 */
+	void fail(long id, Exception cause) {
+		CompletableFuture<RpcResponse> call = calls.remove(id);
+		if (call != null)
+			call.completeExceptionally(cause);
+	}
+
+	/**
+	 * Completes the call the given response belongs to. The call is removed
+	 * from the table right away, but completed by the given executor, such
+	 * that the caller is not blocked by whatever depends on the call.
+	 *
+	 * @param response the response received
+	 * @param gson     gson object used to decode the id of the response
+	 * @param executor executor completing the call
+	 * @return True if the call will be completed, false if the response does
+	 *         not belong to any outstanding call.
+	 */
+	boolean complete(RpcResponse response, Gson gson, Executor executor) {
+		Long id = idOf(response, gson);
+		CompletableFuture<RpcResponse> call = id != null ? calls.remove(id) : null;
+		if (call == null)
+			return false;
+
+		executor.execute(() -> call.complete(response));
+		return true;
+	}
+
+	/**
+	 * Fails all outstanding calls as well as all calls registered later on,
+	 * e.g. since the connection has been lost.
+	 *
+	 * @param cause reason for the failure
+	 */
+	void failAll(Exception cause) {
+		failure = cause;
+		for (Long id : calls.keySet())
+			fail(id, cause);
+	}
+
+	/**
+	 * Returns the cause passed to <code>failAll</code>, if any.
+	 *
+	 * @return The cause of the failure, or null.
+	 */
+	Exception getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Returns the number of calls awaiting their response.
+	 *
+	 * @return The number of outstanding calls.
+	 */
+	int size() {
+		return calls.size();
+	}
+
+	// decodes the id of a response, tolerating ids of unexpected types
+	private static Long idOf(RpcResponse response, Gson gson) {
+		if (response.id == null)
+			return null;
+
+		JsonElement id = response.id.getSerializedValue(gson);
+		if (!id.isJsonPrimitive() || !((JsonPrimitive) id).isNumber())
+			return null;
+		return id.getAsLong();
+	}
+
+}
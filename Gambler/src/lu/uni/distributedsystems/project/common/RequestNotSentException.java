@@ -0,0 +1,22 @@
+package lu.uni.distributedsystems.project.common;
+
+import java.io.IOException;
+
+/**
+ * Signals that a request has failed without any copy of it having been
+ * written to a socket, e.g. since no connection was established. The server
+ * cannot have received, let alone executed, such a request.
+ */
+public class RequestNotSentException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RequestNotSentException(String message) {
+		super(message);
+	}
+
+	public RequestNotSentException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,441 @@
+package lu.uni.distributedsystems.project.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.code.gsonrmi.RpcResponse;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import lu.uni.distributedsystems.gsonrmi.logging.LazyJson;
+import lu.uni.distributedsystems.gsonrmi.server.FrameCompression;
+import lu.uni.distributedsystems.gsonrmi.server.PartnerID;
+
+/**
+ * A single socket connection with a JSON-RPC server, as part of the pool of
+ * a <code>JsonRpcConnection</code>. Each channel performs the partner-id
+ * handshake on its own, such that any number of requests may be outstanding
+ * per channel.
+ * <p>
+ * The socket is driven in non-blocking mode by the <code>RpcClientEngine</code>:
+ * requests are queued and written whenever the socket is writable, responses
+ * are framed incrementally as their bytes arrive. The calls they belong to are
+ * completed by a pool thread, never by the selector thread. Requests are
+ * queued as pooled buffers, which are handed back to the pool once written.
+ * <p>
+ * Compression of large frames is offered in the handshake, with the preset
+ * dictionary of the connection if there is one, and without as a fallback;
+ * in case the server accepts either, requests exceeding the threshold are
+ * sent compressed, and compressed responses are decompressed (see
+ * <code>FrameCompression</code>).
+ * Since responses are matched to their calls by id, responses out of order
+ * may be offered as well; the server then executes the requests of this
+ * channel concurrently.
+ */
+class RpcChannel {
+
+	private static final int CONNECT_TIMEOUT_MILLIS = 10000; // maximum time to establish the connection, including the handshake
+	private static final int BUFFER_SIZE = 16 * 1024;        // size of the read buffer
+	// whether the server may execute the requests of a channel concurrently, and answer
+	// them out of order, as given by the system property gsonrmi.unorderedReplies
+	private static final boolean UNORDERED = Boolean.getBoolean("gsonrmi.unorderedReplies");
+
+	private String serverIP;  // IP address of the JSON-RPC server
+	private int serverPort;   // port number of the JSON-RPC server
+	private String partnerID; // our own partnerID, sent across in the handshake
+	private Gson gson;
+
+	private RpcClientEngine engine;     // the engine driving the socket
+	private SocketChannel socketChannel; // socket connection with the JSON-RPC server
+	private SelectionKey key;           // registration of the socket, only used by the selector thread
+
+	// reading, only used by the selector thread
+	private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private CharBuffer charBuffer = CharBuffer.allocate(BUFFER_SIZE);
+	private CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private JsonFramer framer = new JsonFramer();
+
+	// writing: encoded frames waiting to be written, and whether OP_WRITE has been requested;
+	// each frame is a single entry, such that frames queued concurrently are never interleaved;
+	// buffers of requests are taken from the buffer pool
+	private Queue<ByteBuffer[]> outbox = new ConcurrentLinkedQueue<ByteBuffer[]>();
+	private AtomicBoolean writeRequested = new AtomicBoolean();
+
+	private CompletableFuture<Void> handshake = new CompletableFuture<Void>(); // completed once the server accepted our partnerID
+	private FrameCompression offered;                // compression offered in the handshake
+	private volatile FrameCompression compression;   // compression the server accepted, or null if frames are not compressed
+	private PendingCalls pendingCalls = new PendingCalls(); // calls awaiting their response, failed once the connection is lost
+	private AtomicBoolean lost = new AtomicBoolean();        // true once the connection has been lost or closed
+
+	private Consumer<RpcChannel> lossHandler; // notified once the connection is lost
+	private Executor completions = ForkJoinPool.commonPool(); // completes calls and notifies about losses
+
+	private static Logger logger = Logger.getLogger(RpcChannel.class.getName());
+
+	/**
+	 * Creates a channel, which still needs to be opened.
+	 *
+	 * @param serverIP    IP address of the remote JSON-RPC server
+	 * @param serverPort  port on which the remote JSON-RPC server listens on
+	 * @param partnerID   own id, sent across in the handshake
+	 * @param gson        gson object to use for serialization/deserialization
+	 * @param offered     compression of frames to offer in the handshake
+	 * @param lossHandler notified once the connection is lost, after having
+	 *                    been opened successfully
+	 */
+	RpcChannel(String serverIP, int serverPort, String partnerID, Gson gson, FrameCompression offered, Consumer<RpcChannel> lossHandler) {
+		this.serverIP = serverIP;
+		this.serverPort = serverPort;
+		this.partnerID = partnerID;
+		this.gson = gson;
+		this.offered = offered;
+		this.lossHandler = lossHandler;
+	}
+
+	/**
+	 * Opens the socket connection and performs the handshake, waiting until
+	 * the server has accepted our partnerID.
+	 *
+	 * @throws IOException if the connection cannot be established
+	 */
+	void open() throws IOException {
+		engine = RpcClientEngine.getInstance();
+		socketChannel = SocketChannel.open();
+		socketChannel.configureBlocking(false);
+		socketChannel.connect(new InetSocketAddress(serverIP, serverPort));
+
+		// send across our partnerID as soon as connected, which identifies this sender side
+		// uniquely, specially in case of a re-connect; this way, the receiving JSON-RPC server
+		// can retain the mapping of connections onto a partnerID
+		List<String> capabilities = new ArrayList<String>(3);
+		if (FrameCompression.isSupported()) {
+			capabilities.add(offered.getCapability());
+			if (offered.hasDictionary())
+				capabilities.add(FrameCompression.DEFLATE);
+		}
+		if (UNORDERED)
+			capabilities.add(PartnerID.UNORDERED);
+		PartnerID partnerIDObject = new PartnerID(partnerID, capabilities.toArray(new String[capabilities.size()]));
+		outbox.add(new ByteBuffer[] { StandardCharsets.UTF_8.encode(gson.toJson(partnerIDObject)) });
+		engine.register(socketChannel, this);
+
+		try {
+			handshake.get(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new InterruptedIOException("interrupted while connecting with " + serverIP + ":" + serverPort);
+		}
+		catch (ExecutionException e) {
+			close();
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+		catch (TimeoutException e) {
+			close();
+			throw new SocketTimeoutException("timeout connecting with " + serverIP + ":" + serverPort);
+		}
+	}
+
+	/**
+	 * Closes the socket connection; outstanding calls fail.
+	 */
+	void close() {
+		lost(new IOException("connection with JSON-RPC server at " + serverIP + ":" + serverPort + " closed"));
+	}
+
+	/**
+	 * Returns whether the connection is (still) established.
+	 *
+	 * @return True unless the connection has been lost.
+	 */
+	boolean isOpen() {
+		return !lost.get();
+	}
+
+	/**
+	 * Returns the number of calls awaiting their response on this channel.
+	 *
+	 * @return The number of outstanding calls.
+	 */
+	int getLoad() {
+		return pendingCalls.size();
+	}
+
+	/**
+	 * Sends a JSON-RPC request without waiting for the response.
+	 *
+	 * @param id    id of the request, used to match the response
+	 * @param frame the serialized request, in pooled buffers
+	 * @return A future completed with the response, or completed exceptionally
+	 *         in case the connection is lost before the response has been received;
+	 *         with a <code>RequestNotSentException</code> in case the connection
+	 *         has been lost before the request could be written.
+	 */
+	CompletableFuture<RpcResponse> send(long id, List<ByteBuffer> frame) {
+		// register the call before sending, since the response might arrive immediately
+		CompletableFuture<RpcResponse> call = pendingCalls.register(id);
+		if (call.isDone()) {
+			release(frame);
+			return notSent(call);
+		}
+
+		write(frame);
+		return call;
+	}
+
+	/**
+	 * Sends a batch of JSON-RPC requests in one frame without waiting for the
+	 * responses, which the server sends back in one frame as well.
+	 *
+	 * @param ids   ids of the requests, used to match the responses
+	 * @param frame the serialized array of requests, in pooled buffers
+	 * @return Futures completed with the responses, in the order of the ids,
+	 *         or completed exceptionally in case the connection is lost before
+	 *         the responses have been received; with a
+	 *         <code>RequestNotSentException</code> in case the connection has
+	 *         been lost before the requests could be written.
+	 */
+	List<CompletableFuture<RpcResponse>> send(long[] ids, List<ByteBuffer> frame) {
+		List<CompletableFuture<RpcResponse>> calls = new ArrayList<CompletableFuture<RpcResponse>>(ids.length);
+		for (long id : ids)
+			calls.add(pendingCalls.register(id));
+		// once the channel has failed, all registrations fail, hence checking one of them suffices
+		if (calls.isEmpty() || calls.get(calls.size() - 1).isDone()) {
+			release(frame);
+			for (int i = 0; i < calls.size(); i++)
+				calls.set(i, notSent(calls.get(i)));
+			return calls;
+		}
+
+		write(frame);
+		return calls;
+	}
+
+	// queues an encoded frame, requesting OP_WRITE unless already requested
+	private void write(List<ByteBuffer> frame) {
+		FrameCompression compression = this.compression;
+		if (compression != null)
+			frame = compress(frame, compression);
+		outbox.add(frame.toArray(new ByteBuffer[frame.size()]));
+		if (writeRequested.compareAndSet(false, true))
+			engine.execute(this::requestWrite);
+	}
+
+	// replaces a frame exceeding the threshold by its compressed form
+	private static List<ByteBuffer> compress(List<ByteBuffer> frame, FrameCompression compression) {
+		int length = 0;
+		for (ByteBuffer buffer : frame)
+			length += buffer.remaining();
+		if (length <= FrameCompression.THRESHOLD)
+			return frame;
+
+		byte[] json = new byte[length];
+		int offset = 0;
+		for (ByteBuffer buffer : frame) {
+			int n = buffer.remaining();
+			buffer.duplicate().get(json, offset, n);
+			offset += n;
+		}
+
+		byte[] compressed = compression.compress(json, length);
+		if (compressed == null)
+			return frame;
+		release(frame);
+		return Collections.singletonList(ByteBuffer.wrap(compressed));
+	}
+
+	// returns a call failed like the given one, which failed before its request was written
+	private static CompletableFuture<RpcResponse> notSent(CompletableFuture<RpcResponse> failed) {
+		Throwable cause = failed.handle((response, ex) -> ex).join();
+		CompletableFuture<RpcResponse> call = new CompletableFuture<RpcResponse>();
+		call.completeExceptionally(new RequestNotSentException("connection lost before sending the request", cause));
+		return call;
+	}
+
+	// hands the buffers of a frame that is not sent back to the pool
+	private static void release(List<ByteBuffer> frame) {
+		for (ByteBuffer buffer : frame)
+			BufferPool.getInstance().release(buffer);
+	}
+
+	/**
+	 * Fails a call still awaiting its response, e.g. since its deadline has
+	 * passed. A response arriving later on is ignored.
+	 *
+	 * @param id    id of the request
+	 * @param cause reason for the failure
+	 */
+	void fail(long id, Exception cause) {
+		pendingCalls.fail(id, cause);
+	}
+
+	/**
+	 * Called by the selector thread once the socket has been registered.
+	 */
+	void registered(SelectionKey key) {
+		this.key = key;
+		// the connection might have been closed in the meantime
+		if (lost.get())
+			key.cancel();
+	}
+
+	/**
+	 * Called by the selector thread once the socket is connected.
+	 */
+	void connectable() throws IOException {
+		socketChannel.finishConnect();
+		logger.info("Connection with JSON-RPC server opened at local endpoint " + socketChannel.getLocalAddress());
+
+		writeRequested.set(true);
+		key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Called by the selector thread once the socket is readable; frames all
+	 * data received.
+	 */
+	void readable() throws IOException {
+		if (socketChannel.read(readBuffer) < 0)
+			throw new IOException("connection closed by JSON-RPC server");
+
+		readBuffer.flip();
+		CoderResult result;
+		do {
+			// bytes of an incomplete character remain in the buffer
+			result = decoder.decode(readBuffer, charBuffer, false);
+			charBuffer.flip();
+			for (String frame : framer.feed(charBuffer))
+				received(frame);
+			charBuffer.clear();
+		} while (result.isOverflow());
+		readBuffer.compact();
+	}
+
+	/**
+	 * Called by the selector thread once the socket is writable; writes as
+	 * many queued requests as the socket accepts.
+	 */
+	void writable() throws IOException {
+		ByteBuffer[] frame;
+		while ((frame = outbox.peek()) != null) {
+			// gathering write of all buffers of the frame
+			socketChannel.write(frame);
+			if (frame[frame.length - 1].hasRemaining())
+				return;
+			for (ByteBuffer buffer : outbox.poll())
+				BufferPool.getInstance().release(buffer);
+		}
+
+		key.interestOps(SelectionKey.OP_READ);
+		writeRequested.set(false);
+
+		// a request might have been queued after draining, without requesting a write
+		if (!outbox.isEmpty() && writeRequested.compareAndSet(false, true))
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Called once the connection is lost, closing the socket and failing all
+	 * outstanding calls.
+	 *
+	 * @param cause reason for the loss
+	 */
+	void lost(Exception cause) {
+		if (!lost.compareAndSet(false, true))
+			return;
+
+		try {
+			socketChannel.close();
+		} catch (IOException e) {
+			logger.warning("problem closing socket connection with JSON-RPC server at " + serverIP + ":" + serverPort);
+		}
+
+		if (handshake.completeExceptionally(cause)) {
+			// the channel has never been opened, hence nobody needs to be notified
+			return;
+		}
+
+		// the calls completed before the loss have already been removed from the table
+		completions.execute(() -> {
+			pendingCalls.failAll(cause);
+			lossHandler.accept(this);
+		});
+	}
+
+	// requests OP_WRITE, run by the selector thread
+	private void requestWrite() {
+		if (key != null && key.isValid() && socketChannel.isConnected())
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	// returns whether the reply to the handshake lists the given capability
+	private static boolean accepts(JsonElement reply, String capability) {
+		if (!reply.isJsonObject() || !reply.getAsJsonObject().has("capabilities"))
+			return false;
+		for (JsonElement accepted : reply.getAsJsonObject().getAsJsonArray("capabilities")) {
+			if (capability.equals(accepted.getAsString()))
+				return true;
+		}
+		return false;
+	}
+
+	// handles a complete JSON value received from the server
+	private void received(String frame) throws IOException {
+		if (!handshake.isDone()) {
+			// the server either rejects the connection, e.g. since overloaded, or
+			// lists the capabilities it accepted; the response is ignored otherwise
+			JsonElement reply = new JsonParser().parse(frame);
+			if (reply.isJsonObject() && reply.getAsJsonObject().has("error"))
+				throw new IOException("connection refused by JSON-RPC server at " + serverIP + ":" + serverPort + ": " + reply.getAsJsonObject().get("error"));
+			if (accepts(reply, offered.getCapability()))
+				compression = offered;
+			else if (accepts(reply, FrameCompression.DEFLATE))
+				compression = FrameCompression.PLAIN;
+			handshake.complete(null);
+			return;
+		}
+
+		if (compression != null && FrameCompression.isCompressed(frame))
+			frame = compression.decompress(new JsonParser().parse(frame));
+		logger.log(Level.INFO, "received response: {0}", frame);
+
+		// a batch of requests is answered by an array of responses
+		RpcResponse[] responses = frame.charAt(0) == '['
+				? gson.fromJson(frame, RpcResponse[].class)
+				: new RpcResponse[] { gson.fromJson(frame, RpcResponse.class) };
+		for (RpcResponse response : responses) {
+			if (!pendingCalls.complete(response, gson, completions))
+				logger.log(Level.WARNING, "received response for unknown request: {0}", new LazyJson(gson, response));
+		}
+	}
+
+}
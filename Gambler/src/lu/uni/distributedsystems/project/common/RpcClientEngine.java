@@ -0,0 +1,121 @@
+package lu.uni.distributedsystems.project.common;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/**
+ * Drives the sockets of all JSON-RPC client connections of this process by a
+ * single selector thread, using non-blocking I/O. The engine only performs
+ * connecting, reading and writing; framing, decoding and completing calls are
+ * left to the <code>RpcChannel</code> attached to each socket, which hands
+ * off everything but framing to other threads. Hence, any number of calls on
+ * any number of connections is served by a handful of threads.
+ * <p>
+ * The engine is started on first use and runs in the context of a separate
+ * (daemon) thread.
+ */
+class RpcClientEngine implements Runnable {
+
+	private static RpcClientEngine instance;
+
+	private Selector selector;
+
+	// tasks to be run by the selector thread, e.g. to change interest sets
+	private Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private static Logger logger = Logger.getLogger(RpcClientEngine.class.getName());
+
+	/**
+	 * Returns the engine shared by all connections, starting it if necessary.
+	 *
+	 * @return The engine.
+	 * @throws IOException if the selector cannot be opened
+	 */
+	static synchronized RpcClientEngine getInstance() throws IOException {
+		if (instance == null) {
+			instance = new RpcClientEngine(Selector.open());
+			Thread thread = new Thread(instance, "json-rpc-selector");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return instance;
+	}
+
+	private RpcClientEngine(Selector selector) {
+		this.selector = selector;
+	}
+
+	/**
+	 * Runs a task in the selector thread, e.g. to change the interest set of a
+	 * selection key without racing with the selector.
+	 *
+	 * @param task the task to run
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Registers a socket connecting in non-blocking mode. The channel is
+	 * notified once the socket is connected, readable or writable.
+	 *
+	 * @param socketChannel the socket
+	 * @param channel       the channel handling the socket's events
+	 */
+	void register(SocketChannel socketChannel, RpcChannel channel) {
+		execute(() -> {
+			try {
+				channel.registered(socketChannel.register(selector, SelectionKey.OP_CONNECT, channel));
+			} catch (ClosedChannelException e) {
+				channel.lost(e);
+			}
+		});
+	}
+
+	/**
+	 * Main loop, dispatching the events of all sockets to their channels.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				logger.warning("selector failed: " + e.getMessage());
+				continue;
+			}
+
+			Runnable task;
+			while ((task = tasks.poll()) != null)
+				task.run();
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				RpcChannel channel = (RpcChannel) key.attachment();
+				try {
+					if (key.isConnectable())
+						channel.connectable();
+					if (key.isValid() && key.isReadable())
+						channel.readable();
+					if (key.isValid() && key.isWritable())
+						channel.writable();
+				}
+				catch (Exception e) {
+					channel.lost(e);
+				}
+			}
+		}
+	}
+
+}
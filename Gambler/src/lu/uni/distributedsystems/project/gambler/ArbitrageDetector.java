@@ -0,0 +1,271 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects arbitrage opportunities across bookies: a fixture, i.e. a pair of
+ * teams playing against each other, offered by several bookies such that
+ * betting on one team with one bookie and on the other team with another
+ * bookie yields a guaranteed profit. This is the case whenever the implied
+ * probabilities of the best odds, i.e. 1/odds, sum up to less than 1.
+ * <p>
+ * The detector is maintained incrementally as listener of the match store.
+ * Each update only re-evaluates the quotes of the affected fixture, hence an
+ * alert is raised by the thread applying the triggering update, without ever
+ * scanning all matches.
+ */
+public class ArbitrageDetector implements MatchStoreListener {
+
+	/**
+	 * A combination of bets on both teams of a fixture with different bookies,
+	 * yielding a guaranteed profit.
+	 */
+	public static final class Opportunity {
+
+		private final Quote quoteX;
+		private final Quote quoteY;
+		private final String teamX;
+		private final String teamY;
+		private final float oddsX;
+		private final float oddsY;
+
+		Opportunity(Fixture fixture, Quote quoteX, Quote quoteY) {
+			this.teamX = fixture.teamX;
+			this.teamY = fixture.teamY;
+			this.quoteX = quoteX;
+			this.quoteY = quoteY;
+			this.oddsX = quoteX.oddsX;
+			this.oddsY = quoteY.oddsY;
+		}
+
+		/**
+		 * Returns the sum of the implied probabilities of both bets; the
+		 * opportunity yields a profit of 1 - (sum of implied probabilities)
+		 * per unit of total payout.
+		 *
+		 * @return The sum of the implied probabilities, which is less than 1.
+		 */
+		public float getImpliedProbability() {
+			return 1 / oddsX + 1 / oddsY;
+		}
+
+		@Override
+		public String toString() {
+			return teamX + " @ " + oddsX + " with bookie " + quoteX.bookieID + " (match " + quoteX.matchID + ") / "
+					+ teamY + " @ " + oddsY + " with bookie " + quoteY.bookieID + " (match " + quoteY.matchID + ")"
+					+ " | implied probability: " + getImpliedProbability();
+		}
+
+	}
+
+	/**
+	 * The odds one bookie offers for a fixture, oriented like the fixture.
+	 */
+	static final class Quote {
+
+		private final String bookieID;
+		private final int matchID;
+		private float oddsX;
+		private float oddsY;
+
+		Quote(String bookieID, int matchID, float oddsX, float oddsY) {
+			this.bookieID = bookieID;
+			this.matchID = matchID;
+			this.oddsX = oddsX;
+			this.oddsY = oddsY;
+		}
+
+	}
+
+	/**
+	 * All quotes for a pair of teams, whose names are ordered alphabetically
+	 * such that the pair is identified independently of the order the
+	 * bookies list the teams in. A fixture is dropped once its last quote
+	 * has been removed.
+	 */
+	static final class Fixture {
+
+		private final String name;
+		private final String teamX;
+		private final String teamY;
+		private final Map<MatchKey, Quote> quotes = new HashMap<MatchKey, Quote>();
+
+		// the current opportunity, or null if there is none
+		private Opportunity opportunity;
+
+		// true once dropped from the fixtures, since it has no quotes left
+		private boolean dropped;
+
+		Fixture(String name, String teamX, String teamY) {
+			this.name = name;
+			this.teamX = teamX;
+			this.teamY = teamY;
+		}
+
+	}
+
+	// all fixtures, by their ordered pair of team names
+	private ConcurrentMap<String, Fixture> fixtures = new ConcurrentHashMap<String, Fixture>();
+
+	// fixture of each match
+	private ConcurrentMap<MatchKey, Fixture> fixtureOfMatch = new ConcurrentHashMap<MatchKey, Fixture>();
+
+	// number of alerts raised so far
+	private LongAdder alerts = new LongAdder();
+
+	private static Logger logger = Logger.getLogger(ArbitrageDetector.class.getName());
+
+	/**
+	 * Returns all arbitrage opportunities currently available.
+	 *
+	 * @return A list of all current opportunities.
+	 */
+	public List<Opportunity> getOpportunities() {
+		List<Opportunity> opportunities = new ArrayList<Opportunity>();
+		for (Fixture fixture : fixtures.values()) {
+			synchronized (fixture) {
+				if (fixture.opportunity != null)
+					opportunities.add(fixture.opportunity);
+			}
+		}
+		return opportunities;
+	}
+
+	/**
+	 * Returns the number of alerts raised so far.
+	 *
+	 * @return The number of alerts.
+	 */
+	public long getAlerts() {
+		return alerts.sum();
+	}
+
+	@Override
+	public void matchAdded(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
+		boolean ordered = teamA.compareTo(teamB) <= 0;
+		String teamX = ordered ? teamA : teamB;
+		String teamY = ordered ? teamB : teamA;
+		String name = teamX + '\u0000' + teamY;
+
+		MatchKey key = new MatchKey(bookieID, matchID);
+		while (true) {
+			Fixture fixture = fixtures.computeIfAbsent(name, n -> new Fixture(n, teamX, teamY));
+			synchronized (fixture) {
+				// the fixture might have lost its last quote in the meantime
+				if (fixture.dropped)
+					continue;
+				fixtureOfMatch.put(key, fixture);
+				fixture.quotes.put(key, ordered ? new Quote(bookieID, matchID, oddsA, oddsB) : new Quote(bookieID, matchID, oddsB, oddsA));
+				evaluate(fixture);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void oddsChanged(String bookieID, int matchID, String team, float odds) {
+		MatchKey key = new MatchKey(bookieID, matchID);
+		Fixture fixture = fixtureOfMatch.get(key);
+		if (fixture == null)
+			return;
+
+		synchronized (fixture) {
+			Quote quote = fixture.quotes.get(key);
+			if (quote == null)
+				return;
+
+			if (team.equals(fixture.teamX))
+				quote.oddsX = odds;
+			else
+				quote.oddsY = odds;
+			evaluate(fixture);
+		}
+	}
+
+	@Override
+	public void matchRemoved(String bookieID, int matchID) {
+		MatchKey key = new MatchKey(bookieID, matchID);
+		Fixture fixture = fixtureOfMatch.remove(key);
+		if (fixture == null)
+			return;
+
+		synchronized (fixture) {
+			fixture.quotes.remove(key);
+			evaluate(fixture);
+			if (fixture.quotes.isEmpty()) {
+				fixture.dropped = true;
+				fixtures.remove(fixture.name, fixture);
+			}
+		}
+	}
+
+	// re-evaluates the quotes of a fixture, raising an alert if an opportunity arises
+	private void evaluate(Fixture fixture) {
+		Opportunity opportunity = findOpportunity(fixture);
+
+		if (opportunity != null && fixture.opportunity == null) {
+			alerts.increment();
+			logger.log(Level.FINE, "arbitrage opened: {0}", opportunity);
+		}
+		else if (opportunity == null && fixture.opportunity != null) {
+			logger.log(Level.FINE, "arbitrage closed: {0} vs. {1}", new Object[] { fixture.teamX, fixture.teamY });
+		}
+		fixture.opportunity = opportunity;
+	}
+
+	// finds the most profitable combination of quotes of different bookies, if any
+	private Opportunity findOpportunity(Fixture fixture) {
+		if (fixture.quotes.size() < 2)
+			return null;
+
+		// best and second best quote (of another bookie) for each team
+		Quote bestX = null, secondX = null, bestY = null, secondY = null;
+		for (Quote quote : fixture.quotes.values()) {
+			if (bestX == null || quote.oddsX > bestX.oddsX) {
+				if (bestX != null && !bestX.bookieID.equals(quote.bookieID))
+					secondX = bestX;
+				bestX = quote;
+			}
+			else if (!quote.bookieID.equals(bestX.bookieID) && (secondX == null || quote.oddsX > secondX.oddsX))
+				secondX = quote;
+
+			if (bestY == null || quote.oddsY > bestY.oddsY) {
+				if (bestY != null && !bestY.bookieID.equals(quote.bookieID))
+					secondY = bestY;
+				bestY = quote;
+			}
+			else if (!quote.bookieID.equals(bestY.bookieID) && (secondY == null || quote.oddsY > secondY.oddsY))
+				secondY = quote;
+		}
+
+		Opportunity best = null;
+		if (!bestX.bookieID.equals(bestY.bookieID))
+			best = better(best, fixture, bestX, bestY);
+		else {
+			if (secondY != null)
+				best = better(best, fixture, bestX, secondY);
+			if (secondX != null)
+				best = better(best, fixture, secondX, bestY);
+		}
+		return best;
+	}
+
+	private Opportunity better(Opportunity current, Fixture fixture, Quote quoteX, Quote quoteY) {
+		if (1 / quoteX.oddsX + 1 / quoteY.oddsY >= 1)
+			return current;
+
+		Opportunity candidate = new Opportunity(fixture, quoteX, quoteY);
+		if (current == null || candidate.getImpliedProbability() < current.getImpliedProbability())
+			return candidate;
+		return current;
+	}
+
+}
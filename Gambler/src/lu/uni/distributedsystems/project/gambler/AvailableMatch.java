@@ -5,9 +5,9 @@ public class AvailableMatch {
 	private String bookieID;
 	private int matchID;
 	private String teamA;
-	private float oddsA;
+	private volatile float oddsA;
 	private String teamB;
-	private float oddsB;
+	private volatile float oddsB;
 	private int limit;
 	
 	public AvailableMatch(String bookieID, int matchID, String teamA,
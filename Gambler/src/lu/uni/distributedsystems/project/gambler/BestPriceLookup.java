@@ -0,0 +1,42 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.Set;
+
+/**
+ * Finds the best price for a team, i.e. the highest odds offered for it by
+ * any bookie. Rather than maintaining an index of its own, it walks the
+ * offers of the team as kept by the MatchIndex, which are ordered from the
+ * highest to the lowest odds; finding the best price thus takes logarithmic
+ * time instead of scanning all matches.
+ */
+public class BestPriceLookup {
+
+	private MatchIndex matchIndex;
+
+	/**
+	 * Constructs a lookup answering from the offers of the given match index.
+	 *
+	 * @param matchIndex the match index, maintained as listener of the match store
+	 */
+	public BestPriceLookup(MatchIndex matchIndex) {
+		this.matchIndex = matchIndex;
+	}
+
+	/**
+	 * Returns the highest odds offered for the given team by any bookie,
+	 * skipping the given matches.
+	 *
+	 * @param team    name of the team
+	 * @param exclude matches to skip, e.g. since a bet has already been
+	 *                attempted on them
+	 * @return The best offer, or null if no (other) match of the team is known.
+	 */
+	public MatchIndex.Offer best(String team, Set<MatchKey> exclude) {
+		for (MatchIndex.Offer offer : matchIndex.offersOf(team)) {
+			if (!exclude.contains(new MatchKey(offer.getBookieID(), offer.getMatchID())))
+				return offer;
+		}
+		return null;
+	}
+
+}
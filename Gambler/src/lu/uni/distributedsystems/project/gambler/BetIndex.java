@@ -0,0 +1,117 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Secondary indexes over the open bets, answering queries by bookie, team,
+ * odds and stake. Bets are kept ordered by stake per bookie and per team, as
+ * well as ordered by stake and by odds overall. The index is updated
+ * whenever a bet is placed or settled.
+ */
+public class BetIndex {
+
+	// orders bets by bookie and match
+	static final Comparator<Bet> BY_MATCH = (a, b) -> {
+		int result = a.getBookieID().compareTo(b.getBookieID());
+		return result != 0 ? result : Integer.compare(a.getMatchID(), b.getMatchID());
+	};
+
+	// orders bets from the highest to the lowest stake
+	static final Comparator<Bet> BY_STAKE = (a, b) -> {
+		int result = Integer.compare(b.getStake(), a.getStake());
+		return result != 0 ? result : BY_MATCH.compare(a, b);
+	};
+
+	// orders bets from the highest to the lowest odds
+	static final Comparator<Bet> BY_ODDS = (a, b) -> {
+		int result = Float.compare(b.getOdds(), a.getOdds());
+		return result != 0 ? result : BY_MATCH.compare(a, b);
+	};
+
+	private ConcurrentSkipListSet<Bet> byStake = new ConcurrentSkipListSet<Bet>(BY_STAKE);
+	private ConcurrentSkipListSet<Bet> byOdds = new ConcurrentSkipListSet<Bet>(BY_ODDS);
+
+	// bets with each bookie and on each team, ordered by stake
+	private ConcurrentMap<String, ConcurrentSkipListSet<Bet>> byBookie = new ConcurrentHashMap<String, ConcurrentSkipListSet<Bet>>();
+	private ConcurrentMap<String, ConcurrentSkipListSet<Bet>> byTeam = new ConcurrentHashMap<String, ConcurrentSkipListSet<Bet>>();
+
+	/**
+	 * Adds a bet that has been placed. The bet must not be modified while
+	 * being indexed.
+	 *
+	 * @param bet the placed bet
+	 */
+	public void add(Bet bet) {
+		byStake.add(bet);
+		byOdds.add(bet);
+		indexOf(byBookie, bet.getBookieID()).add(bet);
+		indexOf(byTeam, bet.getTeam()).add(bet);
+	}
+
+	/**
+	 * Removes a bet that has been settled.
+	 *
+	 * @param bet the settled bet
+	 */
+	public void remove(Bet bet) {
+		byStake.remove(bet);
+		byOdds.remove(bet);
+		indexOf(byBookie, bet.getBookieID()).remove(bet);
+		indexOf(byTeam, bet.getTeam()).remove(bet);
+	}
+
+	/**
+	 * Returns the page of bets requested by the query. Supported sort orders
+	 * are stake (highest first), odds (highest first) and bookie.
+	 *
+	 * @param query the query
+	 * @return The bets of the requested page, plus one more if there are
+	 *         further pages.
+	 * @throws IllegalArgumentException if the sort order is unknown
+	 */
+	public List<Bet> find(Query query) {
+		Comparator<Bet> order;
+		if (query.getSort().equals("stake"))
+			order = BY_STAKE;
+		else if (query.getSort().equals("odds"))
+			order = BY_ODDS;
+		else if (query.getSort().equals("bookie"))
+			order = BY_MATCH;
+		else
+			throw new IllegalArgumentException("unknown sort order: " + query.getSort());
+
+		// choose the most selective index, all but byOdds are ordered by stake
+		NavigableSet<Bet> candidates;
+		if (query.getTeam() != null)
+			candidates = byTeam.get(query.getTeam());
+		else if (query.getBookieID() != null)
+			candidates = byBookie.get(query.getBookieID());
+		else if (order == BY_ODDS)
+			candidates = byOdds;
+		else
+			candidates = byStake;
+
+		if (candidates == null)
+			candidates = new ConcurrentSkipListSet<Bet>(BY_STAKE);
+
+		return query.select(candidates,
+				bet -> query.matchesBookie(bet.getBookieID()) && query.matchesTeam(bet.getTeam())
+						&& query.matchesOdds(bet.getOdds()) && query.matchesAmount(bet.getStake()),
+				candidates.comparator() == order ? null : order);
+	}
+
+	private static ConcurrentSkipListSet<Bet> indexOf(ConcurrentMap<String, ConcurrentSkipListSet<Bet>> index, String name) {
+		ConcurrentSkipListSet<Bet> bets = index.get(name);
+		if (bets == null) {
+			index.putIfAbsent(name, new ConcurrentSkipListSet<Bet>(BY_STAKE));
+			bets = index.get(name);
+		}
+		return bets;
+	}
+
+}
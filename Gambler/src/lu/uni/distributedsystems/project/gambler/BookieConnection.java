@@ -1,10 +1,22 @@
 package lu.uni.distributedsystems.project.gambler;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
 import com.google.code.gsonrmi.Parameter;
+import com.google.code.gsonrmi.RpcError;
+import com.google.code.gsonrmi.RpcRequest;
 import com.google.code.gsonrmi.RpcResponse;
 
+import lu.uni.distributedsystems.project.common.FrameDictionary;
 import lu.uni.distributedsystems.project.common.JsonRpcConnection;
 import lu.uni.distributedsystems.project.common.PlaceBetResult;
+import lu.uni.distributedsystems.project.common.RequestNotSentException;
 
 /**
  * A <code>BookieConnection</code> represents the communication channel
@@ -21,6 +33,13 @@ import lu.uni.distributedsystems.project.common.PlaceBetResult;
  */
 public class BookieConnection extends JsonRpcConnection {
 	
+	// number of socket connections kept with each bookie, set via the system
+	// property gambler.connectionsPerBookie
+	private static final int POOL_SIZE = Integer.getInteger("gambler.connectionsPerBookie", 1);
+
+	// maximum number of times a bet whose call timed out is resent to learn its outcome
+	private static final int MAX_RECONCILE_ATTEMPTS = 10;
+
 	private String bookieID; // bookie-ID of the bookie on the other side of this connection
 	private Gambler gambler; // the enclosing gambler
 	
@@ -33,8 +52,10 @@ public class BookieConnection extends JsonRpcConnection {
 	 */
 	public BookieConnection(Gambler gambler, String bookieIP, int bookiePort) {
 		// initialize JsonRpcConnection base class
-		super(bookieIP, bookiePort, gambler.getGamblerID());
+		super(bookieIP, bookiePort, gambler.getGamblerID(), POOL_SIZE);
 		this.gambler = gambler;
+		// offer to compress frames using the dictionary shared with the bookies
+		setFrameDictionary(FrameDictionary.getBytes());
 		// bookieID can be set only after having established the connection
 	}
 	
@@ -85,34 +106,150 @@ public class BookieConnection extends JsonRpcConnection {
 	 * @param team name of the team inside the match the gambler is betting on
 	 * @param stake the wager of the bet
 	 * @param odds the odds of the team winning the match
+	 * @return the bookie's answer, or null if the bet could not be delivered
 	 */
-	
 	public PlaceBetResult bet(String gamblerID, int matchID, String team, int stake, float odds) {
-		Parameter[] params = new Parameter[] {
+		try {
+			return betAsync(gamblerID, matchID, team, stake, odds).get();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex) {
+			System.err.println("Bet could not be placed with bookie " + bookieID + ": " + ex.getCause().getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Place a bet with the specified bookie without waiting for the bookie's
+	 * answer. Any number of bets may be in flight on this connection at a time.
+	 * In case the connection is lost, the bet is resent once reconnected; since
+	 * each bet carries a unique idempotency key, the bookie places it at most once.
+	 * In case the call fails after the bet may have reached the bookie, e.g. since
+	 * it times out, the bookie might have placed the bet nevertheless; the bet
+	 * is then resent with the same idempotency key until the bookie's answer is
+	 * known.
+	 * 
+	 * @param gamblerID id of the gambler placing the bet
+	 * @param matchID id of the match the bet is being placed on
+	 * @param team name of the team inside the match the gambler is betting on
+	 * @param stake the wager of the bet
+	 * @param odds the odds of the team winning the match
+	 * @return A future completed with the bookie's answer, or completed exceptionally
+	 *         if the bet could not be delivered or the bookie returned an error;
+	 *         with an <code>OutcomeUnknownException</code> in case the bet
+	 *         might have been placed, but the bookie's answer is not known
+	 */
+	public CompletableFuture<PlaceBetResult> betAsync(String gamblerID, int matchID, String team, int stake, float odds) {
+		Parameter[] params = betParams(gamblerID, matchID, team, stake, odds);
+		String idempotencyKey = UUID.randomUUID().toString();
+		return outcome(handleIdempotentJsonRpcRequestAsync("bet", params, idempotencyKey), params, idempotencyKey, 0);
+	}
+
+	/**
+	 * Place several bets with the specified bookie as one batch, i.e. using a
+	 * single network round trip, without waiting for the bookie's answers. As
+	 * with <code>betAsync</code>, each bet carries a unique idempotency key,
+	 * such that the bookie places it at most once, even if resent, and bets
+	 * that may have reached the bookie without an answer are reconciled.
+	 * 
+	 * @param gamblerID id of the gambler placing the bets
+	 * @param bets the bets to place, all with this bookie
+	 * @return Futures completed with the bookie's answers, in the order of the bets,
+	 *         or completed exceptionally if a bet could not be delivered or the
+	 *         bookie returned an error
+	 */
+	public List<CompletableFuture<PlaceBetResult>> betBatch(String gamblerID, List<Bet> bets) {
+		List<RpcRequest> requests = new ArrayList<RpcRequest>(bets.size());
+		for (Bet bet : bets) {
+			RpcRequest request = new RpcRequest();
+			request.method = "bet";
+			request.params = betParams(gamblerID, bet.getMatchID(), bet.getTeam(), bet.getStake(), bet.getOdds());
+			request.idempotencyKey = UUID.randomUUID().toString();
+			requests.add(request);
+		}
+
+		List<CompletableFuture<PlaceBetResult>> results = new ArrayList<CompletableFuture<PlaceBetResult>>(bets.size());
+		List<CompletableFuture<RpcResponse>> responses = handleJsonRpcBatchAsync(requests);
+		for (int i = 0; i < requests.size(); i++) {
+			RpcRequest request = requests.get(i);
+			results.add(outcome(responses.get(i), request.params, request.idempotencyKey, 0));
+		}
+		return results;
+	}
+
+	/**
+	 * Turns the response to a bet into the bookie's answer. Only if the bet has
+	 * never been sent, i.e. the call fails with a <code>RequestNotSentException</code>,
+	 * it has not been placed. Otherwise, e.g. in case the call timed out or the
+	 * connection was lost after sending the bet, the outcome of the bet is
+	 * unknown: the bookie might have placed it, with its answer being late or
+	 * lost. The bet is resent with the same idempotency key, which the bookie
+	 * answers by the recorded answer if it placed the bet already, or by
+	 * placing it now otherwise.
+	 * 
+	 * @param call the call placing the bet
+	 * @param params the params of the bet
+	 * @param idempotencyKey the idempotency key of the bet
+	 * @param attempt number of times the bet has been resent so far
+	 * @return A future completed with the bookie's answer
+	 */
+	private CompletableFuture<PlaceBetResult> outcome(CompletableFuture<RpcResponse> call, Parameter[] params, String idempotencyKey, int attempt) {
+		CompletableFuture<PlaceBetResult> outcome = new CompletableFuture<PlaceBetResult>();
+		call.whenComplete((response, ex) -> {
+			Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+			// a request skipped by the bookie tells nothing about an earlier copy of it
+			if (cause == null && response.error != null
+					&& (response.error.code == RpcError.DEADLINE_EXCEEDED.code || response.error.code == RpcError.SERVER_OVERLOADED.code))
+				cause = new TimeoutException("bookie skipped the request: " + response.error);
+
+			if (cause == null) {
+				try {
+					outcome.complete(toPlaceBetResult(response));
+				}
+				catch (RuntimeException e) {
+					outcome.completeExceptionally(e);
+				}
+			}
+			else if (attempt == 0 && cause instanceof RequestNotSentException)
+				// the bet has not been placed, since it has never been sent
+				outcome.completeExceptionally(cause);
+			else if (attempt >= MAX_RECONCILE_ATTEMPTS || isClosed())
+				outcome.completeExceptionally(new OutcomeUnknownException("outcome of bet " + idempotencyKey + " with bookie " + bookieID + " is unknown", cause));
+			else {
+				System.err.println("No answer from bookie " + bookieID + " to bet " + idempotencyKey + " (" + cause.getMessage() + "), asking again");
+				outcome(handleIdempotentJsonRpcRequestAsync("bet", params, idempotencyKey), params, idempotencyKey, attempt + 1)
+						.whenComplete((result, e) -> {
+							if (e != null)
+								outcome.completeExceptionally(e);
+							else
+								outcome.complete(result);
+						});
+			}
+		});
+		return outcome;
+	}
+
+	private static Parameter[] betParams(String gamblerID, int matchID, String team, int stake, float odds) {
+		return new Parameter[] {
 				new Parameter(gamblerID),
 				new Parameter(matchID),
 				new Parameter(team),
 				new Parameter(stake),
 				new Parameter(odds)
 		};
-		
-		// handleJsonRpcRequest sends a JSON-RPC request to the bookie that is connected
-		// via this BookieConnection
-		RpcResponse response = handleJsonRpcRequest("bet",params);
-		
-		//Retry the JsonRpcRequest in case one dropped accidentally
-		int attempts = 0;
-		if(response == null && attempts <3) {
-			attempts++;
-			response = handleJsonRpcRequest("bet",params);
-		}
+	}
+
+	private PlaceBetResult toPlaceBetResult(RpcResponse response) {
+		if (response.error != null)
+			throw new IllegalStateException("bookie " + bookieID + " returned error: " + response.error);
 		
 		// response is either accepted or rejected for a reason
 		// See PlaceBetResult enum for possiblities
-		PlaceBetResult bookieResponse = response.result.getValue(PlaceBetResult.class, getGson());
-		
-		return bookieResponse;
+		return response.result.getValue(PlaceBetResult.class, getGson());
 	}
+	
 	// TODO insert all methods required to communicate with a bookie
 	
 	
@@ -0,0 +1,257 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lu.uni.distributedsystems.project.common.OddsUpdate;
+import lu.uni.distributedsystems.project.common.OddsUpdateResult;
+
+/**
+ * Match store intended for very large numbers of matches. Instead of one
+ * object per match, all matches are kept in primitive arrays ("columns"),
+ * one slot per match. Team names and bookie-ids are interned as integer
+ * symbols, such that each distinct name is stored only once.
+ * <p>
+ * Slots are located via an open-addressing hash index on bookie-id and
+ * match-id. Updating odds therefore neither allocates nor touches more
+ * than a handful of cache lines. Removed matches are replaced by the
+ * match in the last slot, keeping the columns dense.
+ * <p>
+ * <code>AvailableMatch</code> objects are only materialized on demand, i.e.
+ * by <code>get</code> and <code>snapshot</code>. All methods are synchronized.
+ */
+public class ColumnarMatchStore implements MatchStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// marks an unused bucket of the hash index
+	private static final int NO_SLOT = -1;
+
+	// interned bookie-ids and team names
+	private SymbolTable symbols = new SymbolTable();
+
+	// number of used slots
+	private int size;
+
+	// columns, one entry per slot
+	private int[] bookies = new int[INITIAL_CAPACITY];
+	private int[] matchIDs = new int[INITIAL_CAPACITY];
+	private int[] teamsA = new int[INITIAL_CAPACITY];
+	private int[] teamsB = new int[INITIAL_CAPACITY];
+	private float[] oddsA = new float[INITIAL_CAPACITY];
+	private float[] oddsB = new float[INITIAL_CAPACITY];
+	private int[] limits = new int[INITIAL_CAPACITY];
+
+	// hash index from (bookie symbol, match-id) onto slots, using linear probing;
+	// kept at a load factor of at most 0.5
+	private long[] indexKeys = new long[2 * INITIAL_CAPACITY];
+	private int[] indexSlots = newIndexSlots(2 * INITIAL_CAPACITY);
+
+	// listeners notified about all modifications, while holding the lock
+	private MatchStoreListeners listeners = new MatchStoreListeners();
+
+	@Override
+	public synchronized boolean add(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
+		int bookie = symbols.intern(bookieID);
+		long key = key(bookie, matchID);
+
+		if (findBucket(key) >= 0)
+			return false;
+
+		if (size == bookies.length)
+			grow();
+
+		int slot = size++;
+		bookies[slot] = bookie;
+		matchIDs[slot] = matchID;
+		teamsA[slot] = symbols.intern(teamA);
+		teamsB[slot] = symbols.intern(teamB);
+		this.oddsA[slot] = oddsA;
+		this.oddsB[slot] = oddsB;
+		limits[slot] = limit;
+		insertIntoIndex(key, slot);
+		listeners.matchAdded(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit);
+		return true;
+	}
+
+	@Override
+	public synchronized OddsUpdateResult setOdds(String bookieID, int matchID, String team, float odds) {
+		int slot = findSlot(bookieID, matchID);
+
+		if (slot == NO_SLOT)
+			return OddsUpdateResult.REJECTED_UNKNOWN_MATCH;
+
+		int teamSymbol = symbols.lookup(team);
+
+		if (teamSymbol == teamsA[slot]) {
+			oddsA[slot] = odds;
+			listeners.oddsChanged(bookieID, matchID, team, odds);
+			return OddsUpdateResult.UPDATED_TEAM_A;
+		}
+
+		if (teamSymbol == teamsB[slot]) {
+			oddsB[slot] = odds;
+			listeners.oddsChanged(bookieID, matchID, team, odds);
+			return OddsUpdateResult.UPDATED_TEAM_B;
+		}
+
+		return OddsUpdateResult.REJECTED_UNKNOWN_TEAM;
+	}
+
+	@Override
+	public synchronized OddsUpdateResult[] setOdds(OddsUpdate[] updates) {
+		OddsUpdateResult[] results = new OddsUpdateResult[updates.length];
+		for (int i = 0; i < updates.length; i++) {
+			OddsUpdate update = updates[i];
+			results[i] = setOdds(update.getBookieID(), update.getMatchID(), update.getTeam(), update.getOdds());
+		}
+		return results;
+	}
+
+	@Override
+	public synchronized AvailableMatch get(String bookieID, int matchID) {
+		int slot = findSlot(bookieID, matchID);
+		return slot != NO_SLOT ? materialize(slot) : null;
+	}
+
+	@Override
+	public synchronized boolean remove(String bookieID, int matchID) {
+		int bookie = symbols.lookup(bookieID);
+		if (bookie < 0)
+			return false;
+
+		int bucket = findBucket(key(bookie, matchID));
+		if (bucket < 0)
+			return false;
+
+		int slot = indexSlots[bucket];
+		removeFromIndex(bucket);
+
+		// move the match of the last slot into the freed slot
+		int last = --size;
+		if (slot != last) {
+			bookies[slot] = bookies[last];
+			matchIDs[slot] = matchIDs[last];
+			teamsA[slot] = teamsA[last];
+			teamsB[slot] = teamsB[last];
+			oddsA[slot] = oddsA[last];
+			oddsB[slot] = oddsB[last];
+			limits[slot] = limits[last];
+			indexSlots[findBucket(key(bookies[slot], matchIDs[slot]))] = slot;
+		}
+		listeners.matchRemoved(bookieID, matchID);
+		return true;
+	}
+
+	@Override
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized List<AvailableMatch> snapshot() {
+		List<AvailableMatch> snapshot = new ArrayList<AvailableMatch>(size);
+		for (int slot = 0; slot < size; slot++)
+			snapshot.add(materialize(slot));
+		return snapshot;
+	}
+
+	@Override
+	public void addListener(MatchStoreListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public synchronized long estimateHeapBytes() {
+		// seven 4-byte columns per slot, plus the index buckets
+		return 7L * 4 * bookies.length
+				+ (8L + 4) * indexKeys.length
+				+ symbols.estimateHeapBytes();
+	}
+
+	private AvailableMatch materialize(int slot) {
+		return new AvailableMatch(symbols.name(bookies[slot]), matchIDs[slot],
+				symbols.name(teamsA[slot]), oddsA[slot],
+				symbols.name(teamsB[slot]), oddsB[slot], limits[slot]);
+	}
+
+	private int findSlot(String bookieID, int matchID) {
+		int bookie = symbols.lookup(bookieID);
+		if (bookie < 0)
+			return NO_SLOT;
+
+		int bucket = findBucket(key(bookie, matchID));
+		return bucket >= 0 ? indexSlots[bucket] : NO_SLOT;
+	}
+
+	private static long key(int bookie, int matchID) {
+		return ((long) bookie << 32) | (matchID & 0xffffffffL);
+	}
+
+	private static int hash(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private static int[] newIndexSlots(int length) {
+		int[] slots = new int[length];
+		Arrays.fill(slots, NO_SLOT);
+		return slots;
+	}
+
+	// returns the bucket holding the key, or -1 if the key is not indexed
+	private int findBucket(long key) {
+		int mask = indexKeys.length - 1;
+		for (int bucket = hash(key, mask); indexSlots[bucket] != NO_SLOT; bucket = (bucket + 1) & mask) {
+			if (indexKeys[bucket] == key)
+				return bucket;
+		}
+		return -1;
+	}
+
+	private void insertIntoIndex(long key, int slot) {
+		int mask = indexKeys.length - 1;
+		int bucket = hash(key, mask);
+		while (indexSlots[bucket] != NO_SLOT)
+			bucket = (bucket + 1) & mask;
+		indexKeys[bucket] = key;
+		indexSlots[bucket] = slot;
+	}
+
+	// backward-shift deletion, keeping all probe sequences intact without tombstones
+	private void removeFromIndex(int bucket) {
+		int mask = indexKeys.length - 1;
+		int free = bucket;
+		int next = (free + 1) & mask;
+		while (indexSlots[next] != NO_SLOT) {
+			int home = hash(indexKeys[next], mask);
+			// move the entry if its home bucket does not lie cyclically in (free, next]
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				indexKeys[free] = indexKeys[next];
+				indexSlots[free] = indexSlots[next];
+				free = next;
+			}
+			next = (next + 1) & mask;
+		}
+		indexSlots[free] = NO_SLOT;
+	}
+
+	private void grow() {
+		int capacity = 2 * bookies.length;
+		bookies = Arrays.copyOf(bookies, capacity);
+		matchIDs = Arrays.copyOf(matchIDs, capacity);
+		teamsA = Arrays.copyOf(teamsA, capacity);
+		teamsB = Arrays.copyOf(teamsB, capacity);
+		oddsA = Arrays.copyOf(oddsA, capacity);
+		oddsB = Arrays.copyOf(oddsB, capacity);
+		limits = Arrays.copyOf(limits, capacity);
+
+		// rebuild the index with twice as many buckets as slots
+		indexKeys = new long[2 * capacity];
+		indexSlots = newIndexSlots(2 * capacity);
+		for (int slot = 0; slot < size; slot++)
+			insertIntoIndex(key(bookies[slot], matchIDs[slot]), slot);
+	}
+
+}
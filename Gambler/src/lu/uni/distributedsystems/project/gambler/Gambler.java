@@ -1,22 +1,45 @@
 package lu.uni.distributedsystems.project.gambler;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+import lu.uni.distributedsystems.gsonrmi.logging.AsyncLogHandler;
+import lu.uni.distributedsystems.gsonrmi.logging.SamplingFilter;
+import lu.uni.distributedsystems.gsonrmi.server.AdmissionControl;
 import lu.uni.distributedsystems.project.common.PlaceBetResult;
 import lu.uni.distributedsystems.project.common.command.*;
+import lu.uni.distributedsystems.project.gambler.commands.BetBatchCommand;
+import lu.uni.distributedsystems.project.gambler.commands.BetBestCommand;
 import lu.uni.distributedsystems.project.gambler.commands.BetCommand;
 import lu.uni.distributedsystems.project.gambler.commands.ConnectCommand;
 import lu.uni.distributedsystems.project.gambler.commands.FillWalletCommand;
+import lu.uni.distributedsystems.project.gambler.commands.FindBetsCommand;
+import lu.uni.distributedsystems.project.gambler.commands.FindMatchesCommand;
 import lu.uni.distributedsystems.project.gambler.commands.SayHelloCommand;
+import lu.uni.distributedsystems.project.gambler.commands.ShowArbitrageCommand;
 import lu.uni.distributedsystems.project.gambler.commands.ShowBetsCommand;
+import lu.uni.distributedsystems.project.gambler.commands.ShowMatchStoreCommand;
 import lu.uni.distributedsystems.project.gambler.commands.ShowMatchesCommand;
+import lu.uni.distributedsystems.project.gambler.commands.ShowOddsIngestCommand;
+import lu.uni.distributedsystems.project.gambler.commands.ShowServerStatsCommand;
 
 /**
  * Main class of a Gambler
@@ -48,21 +71,56 @@ public class Gambler {
 	private Map<String, BookieConnection> bookieConnections;
 
 	/**
-	 * the amount of money available for the gambler (Default value can be altered
-	 * at will)
+	 * the money of the gambler, including the stakes reserved for bets in flight
 	 */
-	private int wallet = 0;
+	private Wallet wallet = new Wallet();
 
 	/**
-	 * an array containing the information of all the bets the gambler has made
+	 * all open bets the gambler has made, indexed by bookie-id and match-id
 	 */
-	ArrayList<Bet> bets = new ArrayList<Bet>();
+	ConcurrentMap<MatchKey, Bet> bets = new ConcurrentHashMap<MatchKey, Bet>();
 
 	/**
-	 * an array containing the information of all matches which the gambler knows of
-	 * and hasn't bet on yet
+	 * secondary indexes over bets, updated whenever a bet is placed or settled
 	 */
-	ArrayList<AvailableMatch> availableMatches = new ArrayList<AvailableMatch>();
+	private BetIndex betIndex = new BetIndex();
+
+	/**
+	 * all matches which the gambler knows of and hasn't bet on yet; the
+	 * columnar store is selected by setting the system property
+	 * gambler.matchStore to "columnar"
+	 */
+	MatchStore availableMatches = "columnar".equals(System.getProperty("gambler.matchStore"))
+			? new ColumnarMatchStore()
+			: new MatchBook();
+
+	/**
+	 * ingest stage applying the odds updates sent by bookies to availableMatches
+	 */
+	OddsConflator oddsConflator = new OddsConflator(availableMatches);
+
+	/**
+	 * detector raising an alert whenever odds of different bookies allow for
+	 * arbitrage
+	 */
+	private ArbitrageDetector arbitrageDetector = new ArbitrageDetector();
+
+	/**
+	 * secondary indexes over availableMatches, answering the find_matches command
+	 */
+	private MatchIndex matchIndex = new MatchIndex();
+
+	/**
+	 * best odds offered for each team across all bookies, as given by matchIndex
+	 */
+	private BestPriceLookup bestPrices = new BestPriceLookup(matchIndex);
+
+	/**
+	 * journal persisting all changes of matches, bets and wallet; kept in the
+	 * directory given by the system property gambler.journalDir (default: journal),
+	 * in a subdirectory named after the gambler-id
+	 */
+	private GamblerJournal journal;
 
 	/**
 	 * Construct a new gambler instance, including to create and start an associated
@@ -75,19 +133,42 @@ public class Gambler {
 	 *            connections
 	 * @param gamblerPort
 	 *            port number where the associated JSON-RPC server shall listen on
+	 * @throws IOException
+	 *            if the gambler's journal cannot be opened
 	 */
-	public Gambler(String gamblerID, String gamblerIP, int gamblerPort) {
+	public Gambler(String gamblerID, String gamblerIP, int gamblerPort) throws IOException {
 		this.gamblerID = gamblerID;
-		this.bookieConnections = new HashMap<String, BookieConnection>();
+		this.bookieConnections = new ConcurrentHashMap<String, BookieConnection>();
+
+		// detect arbitrage opportunities on every change of the available matches
+		availableMatches.addListener(arbitrageDetector);
+		// maintain the secondary indexes on every change of the available matches
+		availableMatches.addListener(matchIndex);
+
+		// recover matches, bets and wallet from the journal, then record all further changes
+		journal = new GamblerJournal(new File(System.getProperty("gambler.journalDir", "journal"), gamblerID),
+				GamblerJournal.DEFAULT_CAPACITY);
+		recover(journal.getState());
+		availableMatches.addListener(journal);
 
 		// create a command processor and register all commands
 		commandProcessor = new CommandProcessor(new Scanner(System.in));
 		new ConnectCommand(commandProcessor, this);
 		new BetCommand(commandProcessor, this);
+		new BetBestCommand(commandProcessor, this);
+		new BetBatchCommand(commandProcessor, this);
+		new ShowServerStatsCommand(commandProcessor, this);
 		new ShowBetsCommand(commandProcessor, this);
 		new ShowMatchesCommand(commandProcessor, this);
 		new FillWalletCommand(commandProcessor, this);
 		new SayHelloCommand(commandProcessor, this);
+		new ShowMatchStoreCommand(commandProcessor, this);
+		new ShowOddsIngestCommand(commandProcessor, this);
+		new ShowArbitrageCommand(commandProcessor, this);
+		new FindMatchesCommand(commandProcessor, this);
+		new FindBetsCommand(commandProcessor, this);
+		// start applying odds updates received from bookies
+		oddsConflator.start();
 		// create the gambler's JSON-RPC server
 		gamblerServer = new GamblerServer(this, gamblerIP, gamblerPort, commandProcessor);
 		// start the bookie server, i.e. the remote interface which gamblers may invoke
@@ -139,6 +220,25 @@ public class Gambler {
 		bookieConnections.put(bookieID, bookieConnection);
 	}
 
+	/**
+	 * Restores matches, bets and wallet as recorded by the journal.
+	 * 
+	 * @param state
+	 *            the state recovered from the journal
+	 */
+	private void recover(JournalState state) {
+		for (AvailableMatch match : state.getMatches())
+			availableMatches.add(match.getBookieID(), match.getMatchID(), match.getTeamA(), match.getOddsA(),
+					match.getTeamB(), match.getOddsB(), match.getLimit());
+		for (Bet bet : state.getBets()) {
+			Bet recovered = new Bet(bet.getBookieID(), bet.getMatchID(), bet.getTeam(), bet.getStake(), bet.getOdds());
+			bets.put(new MatchKey(bet.getBookieID(), bet.getMatchID()), recovered);
+			betIndex.add(recovered);
+		}
+		if (state.getWallet() > 0)
+			wallet.deposit(state.getWallet());
+	}
+
 	/**
 	 * Shut down the gambler, properly releasing all resources.
 	 */
@@ -146,6 +246,7 @@ public class Gambler {
 		// shut down all bookie connections
 		for (BookieConnection bookieConnection : bookieConnections.values())
 			bookieConnection.closeConnection();
+		journal.close();
 	}
 
 	/**
@@ -168,30 +269,123 @@ public class Gambler {
 	 *            negative)
 	 */
 	public void fillWallet(int amount) {
-		// TODO add or deduct money
-		this.wallet += amount;
-		System.out.println("The gambler's wallet is now at: " + wallet);
+		if (amount > 0) {
+			wallet.deposit(amount);
+		} else if (amount < 0 && !wallet.withdraw(-(long) amount)) {
+			System.out.println("Not enough money in the wallet to deduct " + -(long) amount + ": " + wallet.getAvailable());
+			return;
+		}
+		if (amount != 0)
+			journal.walletChanged(amount);
+		System.out.println("The gambler's wallet is now at: " + wallet.getAvailable());
 	}
 
 	/**
 	 * Prints a list of all open matches of all bookies (since having connected).
 	 */
 	public void showMatches() {
-		// TODO show all open matches of all connected bookies since having connected
-
-		// Prints all info for each match
-		for (AvailableMatch match : availableMatches) {
-			System.out.print("Bookie: " + match.getBookieID());
-			System.out.print(" MatchID: " + match.getMatchID());
-			System.out.print(" Team A: " + match.getTeamA());
-			System.out.print(" Odds A: " + match.getOddsA());
-			System.out.print(" Team B: " + match.getTeamB());
-			System.out.print(" Odds B: " + match.getOddsB());
-			System.out.print(" Limit: " + match.getLimit());
-			System.out.print("\n---------\n");
+		PrintWriter out = newConsoleWriter();
+		for (AvailableMatch match : availableMatches.snapshot()) {
+			out.append("Bookie: ").append(match.getBookieID())
+				.append(" MatchID: ").append(String.valueOf(match.getMatchID()))
+				.append(" Team A: ").append(match.getTeamA())
+				.append(" Odds A: ").append(String.valueOf(match.getOddsA()))
+				.append(" Team B: ").append(match.getTeamB())
+				.append(" Odds B: ").append(String.valueOf(match.getOddsB()))
+				.append(" Limit: ").append(String.valueOf(match.getLimit()))
+				.append("\n---------\n");
 		}
+		out.println("All matches have been listed!");
+		out.flush();
+	}
 
-		System.out.println("All matches have been listed!");
+	/**
+	 * Prints one page of the offers of all available matches, i.e. their odds
+	 * for one team, filtered and sorted as given by the query.
+	 * 
+	 * @param query
+	 *            filter, sort order and page to show
+	 */
+	public void findMatches(Query query) {
+		List<MatchIndex.Offer> offers = matchIndex.find(query);
+
+		PrintWriter out = newConsoleWriter();
+		for (int i = 0; i < Math.min(offers.size(), query.getPageSize()); i++) {
+			MatchIndex.Offer offer = offers.get(i);
+			out.append("Bookie: ").append(offer.getBookieID())
+				.append(" MatchID: ").append(String.valueOf(offer.getMatchID()))
+				.append(" Team: ").append(offer.getTeam())
+				.append(" Odds: ").append(String.valueOf(offer.getOdds()))
+				.append(" vs. ").append(offer.getOpponent())
+				.append(" (").append(String.valueOf(offer.getOpponentOdds())).append(')')
+				.append(" Limit: ").append(String.valueOf(offer.getLimit()))
+				.append('\n');
+		}
+		printPageFooter(out, query, offers.size());
+		out.flush();
+	}
+
+	/**
+	 * Prints the type of match store in use, the number of matches it holds
+	 * and its estimated heap usage.
+	 */
+	public void showMatchStore() {
+		int size = availableMatches.size();
+		long bytes = availableMatches.estimateHeapBytes();
+
+		System.out.println("Match store: " + availableMatches.getClass().getSimpleName());
+		System.out.println("Matches: " + size);
+		System.out.println("Estimated heap usage: " + bytes / 1024 + " KiB");
+		if (size > 0)
+			System.out.println("Estimated heap usage per million matches: " + bytes * 1000000L / size / (1024 * 1024) + " MiB");
+	}
+
+	/**
+	 * Prints the counters of the odds ingest stage, in particular how many
+	 * odds updates have been conflated.
+	 */
+	public void showOddsIngest() {
+		System.out.println("Odds updates received: " + oddsConflator.getReceived());
+		System.out.println("Odds updates conflated: " + oddsConflator.getConflated());
+		System.out.println("Odds updates applied: " + oddsConflator.getApplied());
+		System.out.println("Odds updates rejected: " + oddsConflator.getRejected());
+		System.out.println("Odds updates pending: " + oddsConflator.getPending());
+		System.out.println("Batches applied: " + oddsConflator.getBatches());
+	}
+
+	/**
+	 * Show the limits on concurrent connections and requests of the gambler's
+	 * JSON-RPC server, along with their current usage and the number of
+	 * connections and requests rejected so far.
+	 */
+	public void showServerStats() {
+		AdmissionControl admissionControl = gamblerServer.getAdmissionControl();
+		if (admissionControl == null) {
+			System.out.println("JSON-RPC server not running");
+			return;
+		}
+		System.out.println("Connections: " + admissionControl.getConnections()
+				+ " (limit " + limit(admissionControl.getMaxConnections()) + ", peak " + admissionControl.getPeakConnections()
+				+ ", rejected " + admissionControl.getRejectedConnections() + ")");
+		System.out.println("Requests:    " + admissionControl.getRequests()
+				+ " (limit " + limit(admissionControl.getMaxRequests()) + ", peak " + admissionControl.getPeakRequests()
+				+ ", rejected " + admissionControl.getRejectedRequests() + ")");
+	}
+
+	private static String limit(int max) {
+		return max > 0 ? Integer.toString(max) : "none";
+	}
+
+	/**
+	 * Show all arbitrage opportunities currently offered by the bookies.
+	 */
+	public void showArbitrage() {
+		List<ArbitrageDetector.Opportunity> opportunities = arbitrageDetector.getOpportunities();
+		if (opportunities.isEmpty())
+			System.out.println("No arbitrage opportunities");
+		for (ArbitrageDetector.Opportunity opportunity : opportunities)
+			System.out.println(opportunity);
+		System.out.println("Alerts raised so far: " + arbitrageDetector.getAlerts());
 	}
 
 	/**
@@ -214,30 +408,216 @@ public class Gambler {
 	 *            amount of money placed
 	 * @param odds
 	 *            odds of the team the bet is placed on
+	 * @return A future completed with the bookie's answer once it has been
+	 *         received
 	 */
-	public void bet(String bookieID, int matchID, String team, int stake, float odds) {
+	public CompletableFuture<PlaceBetResult> bet(String bookieID, int matchID, String team, int stake, float odds) {
 		// TODO bet on a match
 		// hint: use the PlaceBetResult enum to cover the different cases that can occur
 		// when placing a bet
 
-		PlaceBetResult response = bookieConnections.get(bookieID).bet(gamblerID, matchID, team, stake, odds);
+		BookieConnection bookieConnection = bookieConnections.get(bookieID);
+		if (bookieConnection == null) {
+			System.out.println("Bet not placed. Not connected with bookie " + bookieID);
+			CompletableFuture<PlaceBetResult> notPlaced = new CompletableFuture<PlaceBetResult>();
+			notPlaced.completeExceptionally(new IllegalArgumentException("unknown bookie " + bookieID));
+			return notPlaced;
+		}
+		if (stake <= 0) {
+			System.out.println("Bet not placed. The stake must be positive: " + stake);
+			CompletableFuture<PlaceBetResult> notPlaced = new CompletableFuture<PlaceBetResult>();
+			notPlaced.completeExceptionally(new IllegalArgumentException("stake must be positive: " + stake));
+			return notPlaced;
+		}
+
+		// reserve the stake before sending the bet, such that concurrent bets
+		// cannot spend the same money
+		if (!wallet.reserve(stake)) {
+			System.out.println("Bet not placed. Not enough money in the wallet: " + wallet.getAvailable());
+			CompletableFuture<PlaceBetResult> notPlaced = new CompletableFuture<PlaceBetResult>();
+			notPlaced.completeExceptionally(new IllegalStateException("not enough money in the wallet"));
+			return notPlaced;
+		}
+
+		// the bet is sent without waiting for the bookie's answer, such that
+		// further bets can be placed while this one is in flight
+		Bet bet = new Bet(bookieID, matchID, team, stake, odds);
+		CompletableFuture<PlaceBetResult> sent;
+		try {
+			sent = bookieConnection.betAsync(gamblerID, matchID, team, stake, odds);
+		} catch (RuntimeException e) {
+			// the bet has not been sent
+			wallet.release(stake);
+			throw e;
+		}
+		return sent.whenComplete((response, ex) -> betCompleted(bet, response, ex));
+	}
+
+	/**
+	 * Place several bets with the same bookie as one batch, i.e. using a single
+	 * network round trip. Each bet is accepted or rejected on its own, exactly
+	 * as if placed via <code>bet</code>; bets whose stake is not covered by the
+	 * wallet are not sent.
+	 * 
+	 * @param bookieID
+	 *            bookie-id of the bookie to place the bets with
+	 * @param bets
+	 *            the bets to place
+	 * @return Futures completed with the bookie's answers, in the order of the bets
+	 */
+	public List<CompletableFuture<PlaceBetResult>> betBatch(String bookieID, List<Bet> bets) {
+		BookieConnection bookieConnection = bookieConnections.get(bookieID);
+		if (bookieConnection == null) {
+			System.out.println("Bets not placed. Not connected with bookie " + bookieID);
+			List<CompletableFuture<PlaceBetResult>> notPlaced = new ArrayList<CompletableFuture<PlaceBetResult>>(bets.size());
+			for (int i = 0; i < bets.size(); i++) {
+				CompletableFuture<PlaceBetResult> result = new CompletableFuture<PlaceBetResult>();
+				result.completeExceptionally(new IllegalArgumentException("unknown bookie " + bookieID));
+				notPlaced.add(result);
+			}
+			return notPlaced;
+		}
 
-		if (response.equals(PlaceBetResult.ACCEPTED)) {
-			Bet bet = new Bet(bookieID, matchID, team, stake, odds);
-			bets.add(bet);
+		// reserve the stakes before sending the batch, as for single bets
+		List<Bet> reserved = new ArrayList<Bet>(bets.size());
+		List<CompletableFuture<PlaceBetResult>> results = new ArrayList<CompletableFuture<PlaceBetResult>>(bets.size());
+		for (Bet bet : bets) {
+			if (bet.getStake() <= 0) {
+				System.out.println("Bet on match with ID: " + bet.getMatchID() + " not placed. The stake must be positive: " + bet.getStake());
+				CompletableFuture<PlaceBetResult> notPlaced = new CompletableFuture<PlaceBetResult>();
+				notPlaced.completeExceptionally(new IllegalArgumentException("stake must be positive: " + bet.getStake()));
+				results.add(notPlaced);
+			} else if (wallet.reserve(bet.getStake())) {
+				reserved.add(bet);
+				results.add(null);
+			} else {
+				System.out.println("Bet on match with ID: " + bet.getMatchID() + " not placed. Not enough money in the wallet: " + wallet.getAvailable());
+				CompletableFuture<PlaceBetResult> notPlaced = new CompletableFuture<PlaceBetResult>();
+				notPlaced.completeExceptionally(new IllegalStateException("not enough money in the wallet"));
+				results.add(notPlaced);
+			}
+		}
+		if (reserved.isEmpty())
+			return results;
 
-			for (int i = 0; i < availableMatches.size(); i++) {
-				if (availableMatches.get(i).getMatchID() == matchID) {
-					availableMatches.remove(i);
-					break;
-				}
+		Iterator<CompletableFuture<PlaceBetResult>> sent;
+		try {
+			sent = bookieConnection.betBatch(gamblerID, reserved).iterator();
+		} catch (RuntimeException e) {
+			// the bets have not been sent
+			for (Bet bet : reserved)
+				wallet.release(bet.getStake());
+			throw e;
+		}
+		Iterator<Bet> reservedBets = reserved.iterator();
+		for (int i = 0; i < results.size(); i++) {
+			if (results.get(i) == null) {
+				Bet bet = reservedBets.next();
+				results.set(i, sent.next().whenComplete((response, ex) -> betCompleted(bet, response, ex)));
 			}
+		}
+		return results;
+	}
 
-			System.out.println("Bet made with bookie " + bookieID + "on match with ID: " + matchID);
-		} else {
-			System.out.println("Bet rejected. Bookie returned the following info: ");
-			System.out.println("--" + response.toString() + "--");
+	// books the answer of a bookie to a bet whose stake has been reserved
+	private void betCompleted(Bet bet, PlaceBetResult response, Throwable ex) {
+		String bookieID = bet.getBookieID();
+		int matchID = bet.getMatchID();
+		int stake = bet.getStake();
+
+		// the bookie might have placed the bet, hence the stake stays reserved
+		Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+		if (cause instanceof OutcomeUnknownException) {
+			System.out.println("Bet with bookie " + bookieID + " on match with ID: " + matchID + " has an unknown outcome; its stake of "
+					+ stake + " stays reserved: " + cause.getMessage());
+			return;
 		}
+
+		// the stake is spent only if the bet has been accepted
+		if (response != PlaceBetResult.ACCEPTED) {
+			wallet.release(stake);
+			if (ex != null) {
+				System.out.println("Bet with bookie " + bookieID + " on match with ID: " + matchID + " failed: " + ex.getMessage());
+			} else {
+				System.out.println("Bet rejected. Bookie returned the following info: ");
+				System.out.println("--" + response.toString() + "--");
+			}
+			return;
+		}
+
+		wallet.commit(stake);
+		journal.walletChanged(-stake);
+
+		bets.put(new MatchKey(bookieID, matchID), bet);
+		betIndex.add(bet);
+		journal.betPlaced(bet);
+
+		availableMatches.remove(bookieID, matchID);
+
+		System.out.println("Bet made with bookie " + bookieID + "on match with ID: " + matchID);
+	}
+
+	/**
+	 * Place a bet on a team with the bookie currently offering the highest odds
+	 * for that team. In case that bookie rejects the bet because of outdated odds
+	 * or an exceeded limit, the bet is placed with the bookie offering the next
+	 * best odds, and so on. The fallback happens as soon as a rejection arrives,
+	 * without blocking the caller; bets are never sent to several bookies at
+	 * once, since more than one of them might accept.
+	 * 
+	 * @param team
+	 *            name of the team to place the bet for
+	 * @param stake
+	 *            amount of money placed
+	 * @return A future completed with the answer of the last bookie asked
+	 */
+	public CompletableFuture<PlaceBetResult> betBest(String team, int stake) {
+		return betAtNextBestPrice(team, stake, new HashSet<MatchKey>());
+	}
+
+	private CompletableFuture<PlaceBetResult> betAtNextBestPrice(String team, int stake, Set<MatchKey> attempted) {
+		MatchIndex.Offer price;
+
+		// skip matches of bookies this gambler is not connected with (any more)
+		do {
+			price = bestPrices.best(team, attempted);
+			if (price != null)
+				attempted.add(new MatchKey(price.getBookieID(), price.getMatchID()));
+		} while (price != null && !bookieConnections.containsKey(price.getBookieID()));
+
+		if (price == null) {
+			System.out.println("No (further) bookie offers a match of team " + team);
+			CompletableFuture<PlaceBetResult> notPlaced = new CompletableFuture<PlaceBetResult>();
+			notPlaced.completeExceptionally(new IllegalStateException("no match found for team " + team));
+			return notPlaced;
+		}
+
+		System.out.println("Placing bet with bookie " + price.getBookieID() + " on match with ID: "
+				+ price.getMatchID() + " at odds " + price.getOdds());
+		return bet(price.getBookieID(), price.getMatchID(), team, stake, price.getOdds()).thenCompose(result -> {
+			if (result == PlaceBetResult.REJECTED_ODDS_MISMATCH || result == PlaceBetResult.REJECTED_LIMIT_EXCEEDED)
+				return betAtNextBestPrice(team, stake, attempted);
+			return CompletableFuture.completedFuture(result);
+		});
+	}
+
+	/**
+	 * Settles the bet placed on a match that has ended, i.e. removes it from
+	 * the open bets.
+	 * 
+	 * @param bookieID
+	 *            bookie-id of the bookie the bet was placed with
+	 * @param matchID
+	 *            match-id of the match that has ended
+	 * @return The settled bet, or null if no bet was placed on the match.
+	 */
+	Bet settleBet(String bookieID, int matchID) {
+		Bet bet = bets.remove(new MatchKey(bookieID, matchID));
+		if (bet != null) {
+			betIndex.remove(bet);
+			journal.betSettled(bookieID, matchID);
+		}
+		return bet;
 	}
 
 	/**
@@ -245,16 +625,55 @@ public class Gambler {
 	 */
 	public void showBets() {
 
-		for (Bet bet : bets) {
-			System.out.print("Bookie: " + bet.getBookieID());
-			System.out.print(" Match ID: " + bet.getMatchID());
-			System.out.print(" Team: " + bet.getTeam());
-			System.out.print(" Odds: " + bet.getOdds());
-			System.out.print(" Stake: " + bet.getStake());
-			System.out.print("\n---------\n");
-		}
+		PrintWriter out = newConsoleWriter();
+		for (Bet bet : bets.values())
+			appendBet(out, bet).append("\n---------\n");
+		out.println("All bets have been listed!");
+		out.flush();
+	}
+
+	/**
+	 * Prints one page of the bets placed by the gambler, filtered and sorted
+	 * as given by the query.
+	 * 
+	 * @param query
+	 *            filter, sort order and page to show
+	 */
+	public void findBets(Query query) {
+		List<Bet> found = betIndex.find(query);
+
+		PrintWriter out = newConsoleWriter();
+		for (int i = 0; i < Math.min(found.size(), query.getPageSize()); i++)
+			appendBet(out, found.get(i)).append('\n');
+		printPageFooter(out, query, found.size());
+		out.flush();
+	}
 
-		System.out.println("All bets have been listed!");
+	private static PrintWriter appendBet(PrintWriter out, Bet bet) {
+		out.append("Bookie: ").append(bet.getBookieID())
+			.append(" Match ID: ").append(String.valueOf(bet.getMatchID()))
+			.append(" Team: ").append(bet.getTeam())
+			.append(" Odds: ").append(String.valueOf(bet.getOdds()))
+			.append(" Stake: ").append(String.valueOf(bet.getStake()));
+		return out;
+	}
+
+	// rows holds the rows of the page, plus one more if there are further pages
+	private static void printPageFooter(PrintWriter out, Query query, int rows) {
+		if (rows == 0)
+			out.println("Nothing found on page " + query.getPage());
+		else if (rows > query.getPageSize())
+			out.println("Page " + query.getPage() + " -- use page=" + (query.getPage() + 1) + " to show more");
+		else
+			out.println("Page " + query.getPage() + " -- last page");
+	}
+
+	/**
+	 * Returns a writer buffering output for the console; needs to be flushed
+	 * (but not closed) once all output has been written.
+	 */
+	private static PrintWriter newConsoleWriter() {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024), false);
 	}
 
 	/**
@@ -269,15 +688,22 @@ public class Gambler {
 		// create a handler to show messages on the console
 		ConsoleHandler consoleHandler = new ConsoleHandler();
 
-		// restrict log messages to the minimum, i.e. just the message itself
+		// restrict log messages to the minimum, i.e. just the message itself,
+		// including its parameters
 		consoleHandler.setFormatter(new Formatter() {
 			@Override
 			public String format(LogRecord record) {
-				return record.getMessage() + "\n";
+				return formatMessage(record) + "\n";
 			}
 		});
+
+		// write messages to the console by a background thread, such that neither
+		// formatting nor console output delay request processing; in order to trace
+		// only every n-th request and response, set -Dgsonrmi.log.sampleRate=n
+		AsyncLogHandler asyncHandler = new AsyncLogHandler(consoleHandler);
+		asyncHandler.setFilter(SamplingFilter.fromSystemProperty());
 		logger.setUseParentHandlers(false);
-		logger.addHandler(consoleHandler);
+		logger.addHandler(asyncHandler);
 	}
 
 	/**
@@ -0,0 +1,387 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal persisting every change of the gambler's state, i.e.
+ * matches added, odds changed and matches removed, bets placed and settled,
+ * as well as changes of the wallet.
+ * <p>
+ * Changes are appended to a memory-mapped log file of fixed capacity. Each
+ * record consists of its length, a CRC32 checksum and the payload; the length
+ * is written last, such that a partially written record is never replayed.
+ * Whenever the log is full, a compact snapshot of the whole state is written
+ * and the log is cleared. Snapshot and log carry a generation number, such
+ * that a log belonging to an older snapshot is never replayed on top of a
+ * newer one.
+ * <p>
+ * Records of bets and of the wallet are forced to disk right away, since
+ * they concern money. Records of matches and odds, which arrive at a much
+ * higher rate, are forced at most once per interval, as given by the system
+ * property gambler.journalForceMillis, along with the next record appended;
+ * an operating system crash may thus lose the latest of them. A crash of
+ * the gambler alone loses nothing, since the mapped log is written back by
+ * the operating system.
+ * <p>
+ * On startup, the state is recovered by loading the snapshot and replaying
+ * the log, which is bounded by the log capacity. Snapshots are taken from a
+ * copy of the state maintained by the journal itself, hence they are always
+ * consistent with the log, no matter how many threads modify the gambler
+ * concurrently.
+ * <p>
+ * The journal registers as listener with the gambler's match store; bets and
+ * wallet changes are reported explicitly. All methods are synchronized.
+ */
+public class GamblerJournal implements MatchStoreListener {
+
+	// default capacity of the log file
+	public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+	private static final String LOG_FILE = "journal.log";
+	private static final String SNAPSHOT_FILE = "snapshot.bin";
+
+	private static final int MAGIC = 0x474A524E; // "GJRN"
+
+	// log header: magic number and generation
+	private static final int HEADER_SIZE = 12;
+
+	// record header: length and checksum of the payload
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	// record types
+	private static final byte MATCH_ADDED = 1;
+	private static final byte ODDS_CHANGED = 2;
+	private static final byte MATCH_REMOVED = 3;
+	private static final byte BET_PLACED = 4;
+	private static final byte BET_SETTLED = 5;
+	private static final byte WALLET_CHANGED = 6;
+
+	// interval in milliseconds at which records of matches and odds are forced to disk
+	private static final long FORCE_INTERVAL_MILLIS = Long.getLong("gambler.journalForceMillis", 1000);
+
+	private File directory;
+	private FileChannel logChannel;
+	private MappedByteBuffer log;
+	private long generation;
+	private long lastForce = System.nanoTime(); // time the log has been forced to disk last
+
+	// the state as of the last record appended
+	private JournalState state = new JournalState();
+
+	// buffer used to encode the payload of a record
+	private ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+	private DataOutputStream payloadOut = new DataOutputStream(payload);
+	private CRC32 crc = new CRC32();
+
+	private static Logger logger = Logger.getLogger(GamblerJournal.class.getName());
+
+	/**
+	 * Opens the journal kept in the given directory, creating it if necessary,
+	 * and recovers the state recorded in it.
+	 *
+	 * @param directory directory holding snapshot and log
+	 * @param capacity  capacity of the log file in bytes
+	 * @throws IOException if the journal cannot be opened or read
+	 */
+	public GamblerJournal(File directory, int capacity) throws IOException {
+		this.directory = directory;
+		directory.mkdirs();
+
+		File snapshotFile = new File(directory, SNAPSHOT_FILE);
+		if (snapshotFile.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+				if (in.readInt() != MAGIC)
+					throw new IOException("not a journal snapshot: " + snapshotFile);
+				generation = in.readLong();
+				state.readFrom(in);
+			}
+		}
+
+		logChannel = FileChannel.open(new File(directory, LOG_FILE).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, logChannel.size()));
+
+		if (log.getInt(0) == MAGIC && log.getLong(4) == generation)
+			replay();
+		else
+			clearLog(log.capacity());
+
+		logger.info("recovered journal generation " + generation + " from " + directory
+				+ ": " + state.getMatches().size() + " matches, " + state.getBets().size() + " bets");
+	}
+
+	/**
+	 * Returns the recovered state. Must only be used before any change is
+	 * appended to the journal.
+	 *
+	 * @return The recovered state.
+	 */
+	synchronized JournalState getState() {
+		return state;
+	}
+
+	@Override
+	public synchronized void matchAdded(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
+		state.addMatch(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit);
+		try {
+			payloadOut.writeByte(MATCH_ADDED);
+			payloadOut.writeUTF(bookieID);
+			payloadOut.writeInt(matchID);
+			payloadOut.writeUTF(teamA);
+			payloadOut.writeFloat(oddsA);
+			payloadOut.writeUTF(teamB);
+			payloadOut.writeFloat(oddsB);
+			payloadOut.writeInt(limit);
+			append(false);
+		} catch (IOException e) {
+			handleFailure(e);
+		}
+	}
+
+	@Override
+	public synchronized void oddsChanged(String bookieID, int matchID, String team, float odds) {
+		state.setOdds(bookieID, matchID, team, odds);
+		try {
+			payloadOut.writeByte(ODDS_CHANGED);
+			payloadOut.writeUTF(bookieID);
+			payloadOut.writeInt(matchID);
+			payloadOut.writeUTF(team);
+			payloadOut.writeFloat(odds);
+			append(false);
+		} catch (IOException e) {
+			handleFailure(e);
+		}
+	}
+
+	@Override
+	public synchronized void matchRemoved(String bookieID, int matchID) {
+		state.removeMatch(bookieID, matchID);
+		try {
+			payloadOut.writeByte(MATCH_REMOVED);
+			payloadOut.writeUTF(bookieID);
+			payloadOut.writeInt(matchID);
+			append(false);
+		} catch (IOException e) {
+			handleFailure(e);
+		}
+	}
+
+	/**
+	 * Records a bet that has been accepted by a bookie.
+	 *
+	 * @param bet the accepted bet
+	 */
+	public synchronized void betPlaced(Bet bet) {
+		state.placeBet(bet.getBookieID(), bet.getMatchID(), bet.getTeam(), bet.getStake(), bet.getOdds());
+		try {
+			payloadOut.writeByte(BET_PLACED);
+			payloadOut.writeUTF(bet.getBookieID());
+			payloadOut.writeInt(bet.getMatchID());
+			payloadOut.writeUTF(bet.getTeam());
+			payloadOut.writeInt(bet.getStake());
+			payloadOut.writeFloat(bet.getOdds());
+			append(true);
+		} catch (IOException e) {
+			handleFailure(e);
+		}
+	}
+
+	/**
+	 * Records that a bet has been settled, since its match has ended.
+	 *
+	 * @param bookieID bookie-id of the bookie the bet was placed with
+	 * @param matchID  match-id of the match the bet was placed on
+	 */
+	public synchronized void betSettled(String bookieID, int matchID) {
+		state.settleBet(bookieID, matchID);
+		try {
+			payloadOut.writeByte(BET_SETTLED);
+			payloadOut.writeUTF(bookieID);
+			payloadOut.writeInt(matchID);
+			append(true);
+		} catch (IOException e) {
+			handleFailure(e);
+		}
+	}
+
+	/**
+	 * Records a change of the money in the wallet.
+	 *
+	 * @param delta amount of money added (if positive) or deducted (if negative)
+	 */
+	public synchronized void walletChanged(long delta) {
+		state.changeWallet(delta);
+		try {
+			payloadOut.writeByte(WALLET_CHANGED);
+			payloadOut.writeLong(delta);
+			append(true);
+		} catch (IOException e) {
+			handleFailure(e);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the current state and clears the log.
+	 *
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public synchronized void compact() throws IOException {
+		long nextGeneration = generation + 1;
+
+		// write the snapshot to a temporary file first, then replace the previous one
+		File tmpFile = new File(directory, SNAPSHOT_FILE + ".tmp");
+		try (FileOutputStream fileOut = new FileOutputStream(tmpFile)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			out.writeInt(MAGIC);
+			out.writeLong(nextGeneration);
+			state.writeTo(out);
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		Files.move(tmpFile.toPath(), new File(directory, SNAPSHOT_FILE).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// from now on, the current log is outdated
+		generation = nextGeneration;
+		clearLog(log.position());
+		logger.info("journal compacted to generation " + generation);
+	}
+
+	/**
+	 * Writes a final snapshot, such that the next startup does not need to
+	 * replay the log, and closes the journal.
+	 */
+	public synchronized void close() {
+		try {
+			compact();
+			logChannel.close();
+		} catch (IOException e) {
+			logger.warning("problem closing journal at " + directory);
+			e.printStackTrace();
+		}
+	}
+
+	// appends the record encoded in payload to the log, compacting first if it does not fit;
+	// a durable record is forced to disk right away, others once the force interval has passed
+	private void append(boolean durable) throws IOException {
+		int length = payload.size();
+		try {
+			if (RECORD_HEADER_SIZE + length > log.capacity() - HEADER_SIZE)
+				throw new IOException("journal record too large: " + length + " bytes");
+
+			// the state already reflects this record, hence the snapshot covers it as well
+			if (log.position() + RECORD_HEADER_SIZE + length > log.capacity()) {
+				compact();
+				return;
+			}
+
+			byte[] bytes = payload.toByteArray();
+			crc.reset();
+			crc.update(bytes, 0, length);
+
+			int position = log.position();
+			log.position(position + RECORD_HEADER_SIZE);
+			log.put(bytes, 0, length);
+			log.putInt(position + 4, (int) crc.getValue());
+			// publish the record by writing its length last
+			log.putInt(position, length);
+
+			if (durable || System.nanoTime() - lastForce >= TimeUnit.MILLISECONDS.toNanos(FORCE_INTERVAL_MILLIS))
+				force();
+		} finally {
+			payload.reset();
+		}
+	}
+
+	// replays all complete records of the log onto the state
+	private void replay() throws IOException {
+		int position = HEADER_SIZE;
+		int records = 0;
+
+		while (position + RECORD_HEADER_SIZE <= log.capacity()) {
+			int length = log.getInt(position);
+			if (length <= 0 || position + RECORD_HEADER_SIZE + length > log.capacity())
+				break;
+
+			byte[] bytes = new byte[length];
+			log.position(position + RECORD_HEADER_SIZE);
+			log.get(bytes);
+			crc.reset();
+			crc.update(bytes, 0, length);
+			if ((int) crc.getValue() != log.getInt(position + 4))
+				break;
+
+			apply(new DataInputStream(new ByteArrayInputStream(bytes)));
+			position += RECORD_HEADER_SIZE + length;
+			records++;
+		}
+
+		// discard whatever follows the last complete record
+		for (int i = position; i < log.capacity() && i < position + RECORD_HEADER_SIZE; i++)
+			log.put(i, (byte) 0);
+		log.position(position);
+		logger.info("replayed " + records + " journal records");
+	}
+
+	private void apply(DataInputStream in) throws IOException {
+		switch (in.readByte()) {
+		case MATCH_ADDED:
+			state.addMatch(in.readUTF(), in.readInt(), in.readUTF(), in.readFloat(), in.readUTF(), in.readFloat(), in.readInt());
+			break;
+		case ODDS_CHANGED:
+			state.setOdds(in.readUTF(), in.readInt(), in.readUTF(), in.readFloat());
+			break;
+		case MATCH_REMOVED:
+			state.removeMatch(in.readUTF(), in.readInt());
+			break;
+		case BET_PLACED:
+			state.placeBet(in.readUTF(), in.readInt(), in.readUTF(), in.readInt(), in.readFloat());
+			break;
+		case BET_SETTLED:
+			state.settleBet(in.readUTF(), in.readInt());
+			break;
+		case WALLET_CHANGED:
+			state.changeWallet(in.readLong());
+			break;
+		default:
+			throw new IOException("unknown journal record type");
+		}
+	}
+
+	// zeroes the log up to the given position and writes a header for the current generation
+	private void clearLog(int end) {
+		for (int i = 0; i < end; i++)
+			log.put(i, (byte) 0);
+		log.putLong(4, generation);
+		log.putInt(0, MAGIC);
+		log.position(HEADER_SIZE);
+		force();
+	}
+
+	private void force() {
+		log.force();
+		lastForce = System.nanoTime();
+	}
+
+	private void handleFailure(IOException e) {
+		logger.warning("problem writing to journal at " + directory + ": " + e.getMessage());
+	}
+
+}
@@ -1,6 +1,8 @@
 package lu.uni.distributedsystems.project.gambler;
 
 import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.google.code.gsonrmi.Parameter;
 import com.google.code.gsonrmi.RpcRequest;
@@ -12,8 +14,14 @@ import com.google.code.gsonrmi.server.RpcTarget;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import lu.uni.distributedsystems.gsonrmi.logging.LazyJson;
+import lu.uni.distributedsystems.gsonrmi.server.AdmissionControl;
 import lu.uni.distributedsystems.gsonrmi.server.Interceptor;
+import lu.uni.distributedsystems.gsonrmi.server.PartnerDispatcher;
 import lu.uni.distributedsystems.gsonrmi.server.RpcSocketListener;
+import lu.uni.distributedsystems.project.common.FrameDictionary;
+import lu.uni.distributedsystems.project.common.OddsUpdate;
+import lu.uni.distributedsystems.project.common.OddsUpdateResult;
 import lu.uni.distributedsystems.project.common.RemoteControllableServer;
 import lu.uni.distributedsystems.project.common.command.CommandProcessor;
 
@@ -43,6 +51,13 @@ public class GamblerServer extends RemoteControllableServer {
 	 * port number on which the gambler's JSON-RPC server listens
 	 */
 	private int gamblerPort;
+
+	/**
+	 * listener accepting connections, once started
+	 */
+	private RpcSocketListener listener;
+
+	private static Logger logger = Logger.getLogger(GamblerServer.class.getName());
 	
 	/**
 	 * Create a new JSON-RPC server instance that is associated with a gambler.
@@ -59,6 +74,16 @@ public class GamblerServer extends RemoteControllableServer {
 		this.gamblerPort = gamblerPort;
 	}
 	
+	/**
+	 * Gets the limits on concurrent connections and requests of this JSON-RPC
+	 * server, along with their current usage.
+	 * 
+	 * @return admission control of this JSON-RPC server, or null if not started
+	 */
+	public AdmissionControl getAdmissionControl() {
+		return listener != null ? listener.getAdmissionControl() : null;
+	}
+	
 	/**
 	 * Gets the IP address this JSON-RPC server listens on.
 	 * 
@@ -104,19 +129,17 @@ public class GamblerServer extends RemoteControllableServer {
 	public String startBetPhase(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
 		
 		//Duplicate check
-		for(AvailableMatch match : gambler.availableMatches) {
-			if(match.getBookieID().equals(bookieID) && match.getMatchID() == matchID) {
-				return "Match already exists";
-			}
+		if(!gambler.availableMatches.add(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit)) {
+			return "Match already exists";
 		}
 		
-		AvailableMatch match = new AvailableMatch(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit);
-		gambler.availableMatches.add(match);
 		return "Match with ID: "+matchID+" received from bookie: "+bookieID;
 	}
 
 	/**
-	 * Method which captures a change in the odds of a match.
+	 * Method which captures a change in the odds of a match. The update is
+	 * queued and applied asynchronously; if several updates for the same team
+	 * arrive before being applied, only the latest one is applied.
 	 * 
 	 * @param bookieID The bookie who's changing the odds
 	 * @param matchID The match who's odds are being changed
@@ -127,23 +150,28 @@ public class GamblerServer extends RemoteControllableServer {
 	@RMI
 	public String setOdds(String bookieID, int matchID, String team, float odds) {
 		
-		for(AvailableMatch match : gambler.availableMatches) {
-			if(match.getBookieID().equals(bookieID) && match.getMatchID() == matchID) {
-				if(match.getTeamA().equals(team)) {
-					match.setOddsA(odds);
-					return "BookieID: " + " | MatchID: " + matchID + " | TeamA: " + team + " | New odds: " + odds;
-				}
-				
-				if(match.getTeamB().equals(team)) {
-					match.setOddsB(odds);
-					return "BookieID: " + " | MatchID: " + matchID + " | TeamB: " + team + " | New odds: " + odds;
-				}
-			}
-
-		}
+		gambler.oddsConflator.submit(bookieID, matchID, team, odds);
+		return "BookieID: " + bookieID + " | MatchID: " + matchID + " | Team: " + team + " | New odds queued: " + odds;
+	}
+	
+	/**
+	 * Method which captures a batch of odds changes, e.g. when a bookie reprices
+	 * a whole league. All updates are applied in one pass, in the given order.
+	 * 
+	 * @param updates The odds updates to apply
+	 * @return For each update, the code of its <code>OddsUpdateResult</code>
+	 */
+	@RMI
+	public int[] setOddsBatch(OddsUpdate[] updates) {
 		
-		//If gambler does not have the stated match or if spelling mistake by bookie
-		return "Match not found.";
+		//Pending single updates for the same teams are older than this batch
+		OddsUpdateResult[] results = gambler.oddsConflator.apply(updates);
+		
+		int[] status = new int[results.length];
+		for(int i = 0; i < results.length; i++) {
+			status[i] = results[i].getCode();
+		}
+		return status;
 	}
 	
 	@RMI
@@ -153,26 +181,17 @@ public class GamblerServer extends RemoteControllableServer {
 		
 		
 		//Remove the bet from gambler's bets since it has ended
-		for(int i = 0;i<gambler.bets.size();i++) {
-			if(gambler.bets.get(i).getMatchID() == matchID) {
-				gambler.bets.remove(i);
-				
-				if(money>0) {
-					gambler.fillWallet(money);
-					System.out.println("Match: " + matchID + " finished. You earned "+ money+ " !");
-				}
-				
-				break;
-			}
-		}
+		Bet bet = gambler.settleBet(bookieID, matchID);
 		
-		//If gambler didn't bet, match needs to be removed from available matches list
-		for(AvailableMatch match : gambler.availableMatches) {
-			if (match.getMatchID()==matchID) {
-				gambler.availableMatches.remove(match);
-				break;
-			}
+		if(bet != null && money>0) {
+			gambler.fillWallet(money);
+			System.out.println("Match: " + matchID + " finished. You earned "+ money+ " !");
 		}
+		
+		//If gambler didn't bet, match needs to be removed from available matches list;
+		//odds updates still pending must not apply to a later match with the same ID
+		gambler.oddsConflator.discard(bookieID, matchID);
+		gambler.availableMatches.remove(bookieID, matchID);
 		return "endBetPhase method received by: " + gambler.getGamblerID();
 	}
 	// TODO insert the methods that can be invoked remotely via JSON-RPC on this gambler
@@ -197,26 +216,37 @@ public class GamblerServer extends RemoteControllableServer {
 				.create();
 
 		// TODO create an interceptor that will intercept both requests as well as responses
-		// for illustration purposes, a simple interceptor is created that simply prints
-		// all intercepted requests and responses
+		// for illustration purposes, a simple interceptor is created that simply logs
+		// all intercepted requests and responses; they are serialized only once the
+		// log record is written, if at all
 		Interceptor interceptor = new Interceptor() {
 			
 			@Override
 			public RpcResponse interceptRequest(RpcRequest request) {
-				System.out.println("intercepted request: " + gson.toJson(request));
+				if (logger.isLoggable(Level.INFO))
+					logger.log(Level.INFO, "intercepted request: {0}", new LazyJson(gson, request));
 				return null;
 			}
 			
 			@Override
 			public void interceptResponse(RpcRequest request, RpcResponse response) {
-				System.out.println("intercepted response: " + gson.toJson(response) + " for request: " + gson.toJson(request));
+				if (logger.isLoggable(Level.INFO))
+					logger.log(Level.INFO, "intercepted response: {0} for request: {1}",
+							new Object[] { new LazyJson(gson, response), new LazyJson(gson, request) });
 			}
 
 		};
 		
 		// launch a socket listener accepting and handling JSON-RPC requests
 		try {
-			new RpcSocketListener(gamblerPort, new RpcTarget(this, gson), gson, interceptor).start();
+			listener = new RpcSocketListener(gamblerPort, new RpcTarget(this, gson), gson, interceptor);
+			// the requests of a bookie are executed in the order sent, e.g. a match is
+			// ended only after it has been started, even if the bookie sends them via
+			// different connections; different bookies are served in parallel
+			listener.setDispatcher(new PartnerDispatcher(Runtime.getRuntime().availableProcessors()));
+			// bookies offering the same dictionary compress their frames with it
+			listener.addFrameDictionary(FrameDictionary.getBytes());
+			listener.start();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
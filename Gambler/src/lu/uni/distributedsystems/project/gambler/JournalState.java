@@ -0,0 +1,134 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The gambler's state as recorded by a <code>GamblerJournal</code>, i.e. all
+ * available matches, all open bets and the money in the wallet. The state is
+ * rebuilt from the snapshot and the journal at startup, and kept up to date
+ * with every journaled change, such that a consistent snapshot can be taken
+ * at any time without pausing the gambler.
+ * <p>
+ * A journal state is not thread-safe; it is only accessed by its journal,
+ * while holding the journal's lock.
+ */
+class JournalState {
+
+	private Map<MatchKey, AvailableMatch> matches = new HashMap<MatchKey, AvailableMatch>();
+	private Map<MatchKey, Bet> bets = new HashMap<MatchKey, Bet>();
+	private long wallet;
+
+	void addMatch(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
+		MatchKey key = new MatchKey(bookieID, matchID);
+		if (!matches.containsKey(key))
+			matches.put(key, new AvailableMatch(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit));
+	}
+
+	void setOdds(String bookieID, int matchID, String team, float odds) {
+		AvailableMatch match = matches.get(new MatchKey(bookieID, matchID));
+		if (match == null)
+			return;
+
+		if (match.getTeamA().equals(team))
+			match.setOddsA(odds);
+		else if (match.getTeamB().equals(team))
+			match.setOddsB(odds);
+	}
+
+	void removeMatch(String bookieID, int matchID) {
+		matches.remove(new MatchKey(bookieID, matchID));
+	}
+
+	void placeBet(String bookieID, int matchID, String team, int stake, float odds) {
+		bets.put(new MatchKey(bookieID, matchID), new Bet(bookieID, matchID, team, stake, odds));
+	}
+
+	void settleBet(String bookieID, int matchID) {
+		bets.remove(new MatchKey(bookieID, matchID));
+	}
+
+	void changeWallet(long delta) {
+		wallet += delta;
+	}
+
+	/**
+	 * Returns all available matches. The returned objects must not be modified.
+	 *
+	 * @return All available matches.
+	 */
+	Collection<AvailableMatch> getMatches() {
+		return matches.values();
+	}
+
+	/**
+	 * Returns all open bets. The returned objects must not be modified.
+	 *
+	 * @return All open bets.
+	 */
+	Collection<Bet> getBets() {
+		return bets.values();
+	}
+
+	/**
+	 * Returns the money in the wallet, excluding reservations for bets in flight.
+	 *
+	 * @return The money in the wallet.
+	 */
+	long getWallet() {
+		return wallet;
+	}
+
+	/**
+	 * Writes a compact binary snapshot of this state.
+	 *
+	 * @param out the output to write to
+	 * @throws IOException if writing fails
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeLong(wallet);
+
+		out.writeInt(matches.size());
+		for (AvailableMatch match : matches.values()) {
+			out.writeUTF(match.getBookieID());
+			out.writeInt(match.getMatchID());
+			out.writeUTF(match.getTeamA());
+			out.writeFloat(match.getOddsA());
+			out.writeUTF(match.getTeamB());
+			out.writeFloat(match.getOddsB());
+			out.writeInt(match.getLimit());
+		}
+
+		out.writeInt(bets.size());
+		for (Bet bet : bets.values()) {
+			out.writeUTF(bet.getBookieID());
+			out.writeInt(bet.getMatchID());
+			out.writeUTF(bet.getTeam());
+			out.writeInt(bet.getStake());
+			out.writeFloat(bet.getOdds());
+		}
+	}
+
+	/**
+	 * Replaces this state by a snapshot written via <code>writeTo</code>.
+	 *
+	 * @param in the input to read from
+	 * @throws IOException if reading fails
+	 */
+	void readFrom(DataInput in) throws IOException {
+		matches.clear();
+		bets.clear();
+		wallet = in.readLong();
+
+		for (int n = in.readInt(); n > 0; n--)
+			addMatch(in.readUTF(), in.readInt(), in.readUTF(), in.readFloat(), in.readUTF(), in.readFloat(), in.readInt());
+
+		for (int n = in.readInt(); n > 0; n--)
+			placeBet(in.readUTF(), in.readInt(), in.readUTF(), in.readInt(), in.readFloat());
+	}
+
+}
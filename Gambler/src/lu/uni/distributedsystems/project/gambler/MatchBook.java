@@ -0,0 +1,139 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import lu.uni.distributedsystems.project.common.OddsUpdate;
+import lu.uni.distributedsystems.project.common.OddsUpdateResult;
+
+/**
+ * Default match store, keeping one <code>AvailableMatch</code> object per
+ * match. Matches are indexed by bookie-id and match-id, such that lookups and
+ * updates take constant time, regardless of the number of matches.
+ * <p>
+ * Iteration is only offered via snapshots, which are not affected by
+ * concurrent modifications.
+ */
+public class MatchBook implements MatchStore {
+
+	// rough per-match overhead of the AvailableMatch, its MatchKey and the
+	// hash map node, assuming compressed object pointers
+	private static final int BYTES_PER_ENTRY = 40 + 24 + 32 + 8;
+
+	// number of locks modifications are striped across
+	private static final int LOCK_STRIPES = 64;
+
+	// all known matches, indexed by bookie-id and match-id
+	private ConcurrentMap<MatchKey, AvailableMatch> matches = new ConcurrentHashMap<MatchKey, AvailableMatch>();
+
+	// listeners notified about all modifications
+	private MatchStoreListeners listeners = new MatchStoreListeners();
+
+	// all modifications of the same match, including the notification of the
+	// listeners, are serialized by the lock of its stripe, such that listeners
+	// see them in order; the map itself is not locked while listeners run,
+	// since they may take their time, e.g. the journal writing to its file
+	private Object[] locks = new Object[LOCK_STRIPES];
+
+	public MatchBook() {
+		for (int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+	}
+
+	@Override
+	public boolean add(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
+		MatchKey key = new MatchKey(bookieID, matchID);
+		synchronized (lockOf(key)) {
+			if (matches.putIfAbsent(key, new AvailableMatch(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit)) != null)
+				return false;
+			listeners.matchAdded(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit);
+			return true;
+		}
+	}
+
+	@Override
+	public OddsUpdateResult setOdds(String bookieID, int matchID, String team, float odds) {
+		MatchKey key = new MatchKey(bookieID, matchID);
+		synchronized (lockOf(key)) {
+			AvailableMatch match = matches.get(key);
+			if (match == null)
+				return OddsUpdateResult.REJECTED_UNKNOWN_MATCH;
+
+			OddsUpdateResult result;
+			if (match.getTeamA().equals(team)) {
+				match.setOddsA(odds);
+				result = OddsUpdateResult.UPDATED_TEAM_A;
+			}
+			else if (match.getTeamB().equals(team)) {
+				match.setOddsB(odds);
+				result = OddsUpdateResult.UPDATED_TEAM_B;
+			}
+			else
+				return OddsUpdateResult.REJECTED_UNKNOWN_TEAM;
+
+			listeners.oddsChanged(bookieID, matchID, team, odds);
+			return result;
+		}
+	}
+
+	@Override
+	public OddsUpdateResult[] setOdds(OddsUpdate[] updates) {
+		OddsUpdateResult[] results = new OddsUpdateResult[updates.length];
+		for (int i = 0; i < updates.length; i++) {
+			OddsUpdate update = updates[i];
+			results[i] = setOdds(update.getBookieID(), update.getMatchID(), update.getTeam(), update.getOdds());
+		}
+		return results;
+	}
+
+	@Override
+	public AvailableMatch get(String bookieID, int matchID) {
+		return matches.get(new MatchKey(bookieID, matchID));
+	}
+
+	@Override
+	public boolean remove(String bookieID, int matchID) {
+		MatchKey key = new MatchKey(bookieID, matchID);
+		synchronized (lockOf(key)) {
+			if (matches.remove(key) == null)
+				return false;
+			listeners.matchRemoved(bookieID, matchID);
+			return true;
+		}
+	}
+
+	@Override
+	public int size() {
+		return matches.size();
+	}
+
+	@Override
+	public List<AvailableMatch> snapshot() {
+		return new ArrayList<AvailableMatch>(matches.values());
+	}
+
+	@Override
+	public void addListener(MatchStoreListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public long estimateHeapBytes() {
+		long bytes = 0;
+		// every match holds its own copies of the bookie and team names
+		for (AvailableMatch match : matches.values()) {
+			bytes += BYTES_PER_ENTRY;
+			bytes += SymbolTable.estimateStringBytes(match.getBookieID());
+			bytes += SymbolTable.estimateStringBytes(match.getTeamA());
+			bytes += SymbolTable.estimateStringBytes(match.getTeamB());
+		}
+		return bytes;
+	}
+
+	private Object lockOf(MatchKey key) {
+		return locks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+	}
+
+}
@@ -0,0 +1,242 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Secondary indexes over the available matches, answering queries by
+ * bookie, team, odds and limit. Each match offers two bets, one per team;
+ * the index holds one <code>Offer</code> per team and match, kept ordered by
+ * odds per bookie and per team, as well as ordered by odds and by limit
+ * overall. The indexes are maintained incrementally as listener of the match
+ * store.
+ * <p>
+ * A query is driven by the most selective index applicable; as long as the
+ * index is ordered as requested, only the rows up to the requested page are
+ * visited, no matter how many matches are available.
+ */
+public class MatchIndex implements MatchStoreListener {
+
+	/**
+	 * The odds offered by some bookie for one team of a match.
+	 */
+	public static final class Offer {
+
+		private final String bookieID;
+		private final int matchID;
+		private final String team;
+		private final float odds;
+		private final String opponent;
+		private final float opponentOdds;
+		private final int limit;
+
+		// positions range bounds before (-1) or after (1) all offers of the same odds
+		private final int bound;
+
+		Offer(String bookieID, int matchID, String team, float odds, String opponent, float opponentOdds, int limit) {
+			this(bookieID, matchID, team, odds, opponent, opponentOdds, limit, 0);
+		}
+
+		private Offer(String bookieID, int matchID, String team, float odds, String opponent, float opponentOdds, int limit, int bound) {
+			this.bookieID = bookieID;
+			this.matchID = matchID;
+			this.team = team;
+			this.odds = odds;
+			this.opponent = opponent;
+			this.opponentOdds = opponentOdds;
+			this.limit = limit;
+			this.bound = bound;
+		}
+
+		public String getBookieID() {
+			return bookieID;
+		}
+
+		public int getMatchID() {
+			return matchID;
+		}
+
+		public String getTeam() {
+			return team;
+		}
+
+		public float getOdds() {
+			return odds;
+		}
+
+		public String getOpponent() {
+			return opponent;
+		}
+
+		public float getOpponentOdds() {
+			return opponentOdds;
+		}
+
+		public int getLimit() {
+			return limit;
+		}
+
+	}
+
+	// orders offers by bookie, match and team
+	static final Comparator<Offer> BY_MATCH = (a, b) -> {
+		int result = Integer.compare(a.bound, b.bound);
+		if (result == 0)
+			result = a.bookieID.compareTo(b.bookieID);
+		if (result == 0)
+			result = Integer.compare(a.matchID, b.matchID);
+		if (result == 0)
+			result = a.team.compareTo(b.team);
+		return result;
+	};
+
+	// orders offers from the highest to the lowest odds
+	static final Comparator<Offer> BY_ODDS = (a, b) -> {
+		int result = Float.compare(b.odds, a.odds);
+		return result != 0 ? result : BY_MATCH.compare(a, b);
+	};
+
+	// orders offers from the highest to the lowest limit
+	static final Comparator<Offer> BY_LIMIT = (a, b) -> {
+		int result = Integer.compare(b.limit, a.limit);
+		return result != 0 ? result : BY_ODDS.compare(a, b);
+	};
+
+	private ConcurrentSkipListSet<Offer> byOdds = new ConcurrentSkipListSet<Offer>(BY_ODDS);
+	private ConcurrentSkipListSet<Offer> byLimit = new ConcurrentSkipListSet<Offer>(BY_LIMIT);
+
+	// offers of each bookie and of each team, ordered by odds
+	private ConcurrentMap<String, ConcurrentSkipListSet<Offer>> byBookie = new ConcurrentHashMap<String, ConcurrentSkipListSet<Offer>>();
+	private ConcurrentMap<String, ConcurrentSkipListSet<Offer>> byTeam = new ConcurrentHashMap<String, ConcurrentSkipListSet<Offer>>();
+
+	// current offers of both teams of each match, needed to update the ordered sets
+	private ConcurrentMap<MatchKey, Offer[]> offersByMatch = new ConcurrentHashMap<MatchKey, Offer[]>();
+
+	/**
+	 * Returns the page of offers requested by the query. Supported sort
+	 * orders are odds (highest first), limit (highest first) and bookie.
+	 *
+	 * @param query the query
+	 * @return The offers of the requested page, plus one more if there are
+	 *         further pages.
+	 * @throws IllegalArgumentException if the sort order is unknown
+	 */
+	public List<Offer> find(Query query) {
+		Comparator<Offer> order;
+		if (query.getSort().equals("odds"))
+			order = BY_ODDS;
+		else if (query.getSort().equals("limit"))
+			order = BY_LIMIT;
+		else if (query.getSort().equals("bookie"))
+			order = BY_MATCH;
+		else
+			throw new IllegalArgumentException("unknown sort order: " + query.getSort());
+
+		// choose the most selective index, all but byLimit are ordered by odds
+		NavigableSet<Offer> candidates;
+		if (query.getTeam() != null)
+			candidates = byTeam.get(query.getTeam());
+		else if (query.getBookieID() != null)
+			candidates = byBookie.get(query.getBookieID());
+		else if (order == BY_LIMIT)
+			candidates = byLimit;
+		else
+			candidates = byOdds;
+
+		if (candidates == null)
+			candidates = new ConcurrentSkipListSet<Offer>(BY_ODDS);
+
+		if (candidates.comparator() == BY_ODDS && query.hasOddsRange()) {
+			// odds are ordered from high to low
+			candidates = candidates.subSet(
+					new Offer(null, 0, null, query.getMaxOdds(), null, 0, 0, -1), true,
+					new Offer(null, 0, null, query.getMinOdds(), null, 0, 0, 1), true);
+		}
+
+		return query.select(candidates,
+				offer -> query.matchesBookie(offer.bookieID) && query.matchesTeam(offer.team)
+						&& query.matchesOdds(offer.odds) && query.matchesAmount(offer.limit),
+				candidates.comparator() == order ? null : order);
+	}
+
+	/**
+	 * Returns the offers for the given team, ordered from the highest to the
+	 * lowest odds. The set reflects later changes of the index.
+	 *
+	 * @param team name of the team
+	 * @return The offers for the team, which are not to be modified.
+	 */
+	NavigableSet<Offer> offersOf(String team) {
+		NavigableSet<Offer> offers = byTeam.get(team);
+		return offers != null ? Collections.unmodifiableNavigableSet(offers) : Collections.<Offer>emptyNavigableSet();
+	}
+
+	@Override
+	public void matchAdded(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
+		Offer[] offers = new Offer[] {
+				new Offer(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit),
+				new Offer(bookieID, matchID, teamB, oddsB, teamA, oddsA, limit)
+		};
+		offersByMatch.put(new MatchKey(bookieID, matchID), offers);
+		for (Offer offer : offers)
+			add(offer);
+	}
+
+	@Override
+	public void oddsChanged(String bookieID, int matchID, String team, float odds) {
+		Offer[] offers = offersByMatch.get(new MatchKey(bookieID, matchID));
+		if (offers == null)
+			return;
+
+		// the match store serializes all changes of the same match
+		int changed = offers[0].team.equals(team) ? 0 : 1;
+		Offer offer = offers[changed];
+		Offer other = offers[1 - changed];
+
+		remove(offer);
+		remove(other);
+		offers[changed] = new Offer(bookieID, matchID, team, odds, other.team, other.odds, offer.limit);
+		offers[1 - changed] = new Offer(bookieID, matchID, other.team, other.odds, team, odds, other.limit);
+		add(offers[changed]);
+		add(offers[1 - changed]);
+	}
+
+	@Override
+	public void matchRemoved(String bookieID, int matchID) {
+		Offer[] offers = offersByMatch.remove(new MatchKey(bookieID, matchID));
+		if (offers == null)
+			return;
+
+		for (Offer offer : offers)
+			remove(offer);
+	}
+
+	private void add(Offer offer) {
+		byOdds.add(offer);
+		byLimit.add(offer);
+		indexOf(byBookie, offer.bookieID).add(offer);
+		indexOf(byTeam, offer.team).add(offer);
+	}
+
+	private void remove(Offer offer) {
+		byOdds.remove(offer);
+		byLimit.remove(offer);
+		indexOf(byBookie, offer.bookieID).remove(offer);
+		indexOf(byTeam, offer.team).remove(offer);
+	}
+
+	private static ConcurrentSkipListSet<Offer> indexOf(ConcurrentMap<String, ConcurrentSkipListSet<Offer>> index, String name) {
+		ConcurrentSkipListSet<Offer> offers = index.get(name);
+		if (offers == null) {
+			index.putIfAbsent(name, new ConcurrentSkipListSet<Offer>(BY_ODDS));
+			offers = index.get(name);
+		}
+		return offers;
+	}
+
+}
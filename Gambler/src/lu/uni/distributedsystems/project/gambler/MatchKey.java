@@ -0,0 +1,55 @@
+package lu.uni.distributedsystems.project.gambler;
+
+/**
+ * Identifies a match uniquely among all connected bookies. Match-ids are
+ * only unique per bookie, hence a match is identified by the combination
+ * of bookie-id and match-id.
+ */
+public final class MatchKey {
+
+	private final String bookieID;
+	private final int matchID;
+
+	/**
+	 * Constructs the key of a match.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id assigned by that bookie
+	 */
+	public MatchKey(String bookieID, int matchID) {
+		this.bookieID = bookieID;
+		this.matchID = matchID;
+	}
+
+	public String getBookieID() {
+		return bookieID;
+	}
+
+	public int getMatchID() {
+		return matchID;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * bookieID.hashCode() + matchID;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+
+		if (!(obj instanceof MatchKey))
+			return false;
+
+		MatchKey other = (MatchKey) obj;
+
+		return matchID == other.matchID && bookieID.equals(other.bookieID);
+	}
+
+	@Override
+	public String toString() {
+		return bookieID + "/" + matchID;
+	}
+
+}
@@ -0,0 +1,101 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.List;
+
+import lu.uni.distributedsystems.project.common.OddsUpdate;
+import lu.uni.distributedsystems.project.common.OddsUpdateResult;
+
+/**
+ * Directory of all matches the gambler knows of and hasn't bet on yet.
+ * Matches are identified by the combination of bookie-id and match-id.
+ * <p>
+ * Implementations must be thread-safe, since a match store is accessed
+ * concurrently by the threads handling JSON-RPC requests of the bookies
+ * as well as by the console thread.
+ */
+public interface MatchStore {
+
+	/**
+	 * Adds a match, unless a match with the same bookie-id and match-id is
+	 * already known.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id assigned by that bookie
+	 * @param teamA    name of the first team
+	 * @param oddsA    odds of the first team
+	 * @param teamB    name of the second team
+	 * @param oddsB    odds of the second team
+	 * @param limit    maximum total wager accepted by the bookie for the match
+	 * @return true if the match has been added, false if it was known already
+	 */
+	boolean add(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit);
+
+	/**
+	 * Updates the odds of one team of a match.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id of the match
+	 * @param team     name of the team whose odds change
+	 * @param odds     the new odds
+	 * @return The outcome of the update.
+	 */
+	OddsUpdateResult setOdds(String bookieID, int matchID, String team, float odds);
+
+	/**
+	 * Applies a batch of odds updates in one pass.
+	 *
+	 * @param updates the odds updates to apply, in order
+	 * @return The outcome of each update, in the order of the updates.
+	 */
+	OddsUpdateResult[] setOdds(OddsUpdate[] updates);
+
+	/**
+	 * Looks up a match.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id of the match
+	 * @return The match, or null if the match is unknown.
+	 */
+	AvailableMatch get(String bookieID, int matchID);
+
+	/**
+	 * Removes a match.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id of the match
+	 * @return true if the match has been removed, false if it was unknown
+	 */
+	boolean remove(String bookieID, int matchID);
+
+	/**
+	 * Returns the number of known matches.
+	 *
+	 * @return The number of known matches.
+	 */
+	int size();
+
+	/**
+	 * Returns a snapshot of all known matches, e.g. to display them. Later
+	 * modifications of the store are not reflected in the snapshot.
+	 *
+	 * @return A list of all matches known at the time of the call.
+	 */
+	List<AvailableMatch> snapshot();
+
+	/**
+	 * Registers a listener to be notified about all subsequent modifications
+	 * of the store.
+	 *
+	 * @param listener the listener to register
+	 */
+	void addListener(MatchStoreListener listener);
+
+	/**
+	 * Estimates the heap memory occupied by the store, including the
+	 * team and bookie names it references.
+	 *
+	 * @return Estimated heap usage in bytes.
+	 */
+	long estimateHeapBytes();
+
+}
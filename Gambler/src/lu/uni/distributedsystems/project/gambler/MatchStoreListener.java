@@ -0,0 +1,45 @@
+package lu.uni.distributedsystems.project.gambler;
+
+/**
+ * Listener notified about every modification of a match store, e.g. to
+ * maintain indexes or to persist the modification.
+ * <p>
+ * Listeners are invoked synchronously by the thread modifying the store,
+ * after the modification has been applied. Notifications concerning the same
+ * match are delivered in the order the modifications have been applied.
+ * Listeners must not modify the store they are registered with.
+ */
+public interface MatchStoreListener {
+
+	/**
+	 * Invoked after a match has been added.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id assigned by that bookie
+	 * @param teamA    name of the first team
+	 * @param oddsA    odds of the first team
+	 * @param teamB    name of the second team
+	 * @param oddsB    odds of the second team
+	 * @param limit    maximum total wager accepted by the bookie for the match
+	 */
+	void matchAdded(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit);
+
+	/**
+	 * Invoked after the odds of one team of a match have been updated.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id of the match
+	 * @param team     name of the team whose odds changed
+	 * @param odds     the new odds
+	 */
+	void oddsChanged(String bookieID, int matchID, String team, float odds);
+
+	/**
+	 * Invoked after a match has been removed.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id of the match
+	 */
+	void matchRemoved(String bookieID, int matchID);
+
+}
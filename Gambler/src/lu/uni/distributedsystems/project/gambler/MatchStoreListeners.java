@@ -0,0 +1,41 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Listener forwarding all notifications to a list of registered listeners.
+ * Used by match store implementations to notify their listeners.
+ */
+class MatchStoreListeners implements MatchStoreListener {
+
+	private List<MatchStoreListener> listeners = new CopyOnWriteArrayList<MatchStoreListener>();
+
+	/**
+	 * Registers a listener.
+	 *
+	 * @param listener the listener to register
+	 */
+	void add(MatchStoreListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void matchAdded(String bookieID, int matchID, String teamA, float oddsA, String teamB, float oddsB, int limit) {
+		for (MatchStoreListener listener : listeners)
+			listener.matchAdded(bookieID, matchID, teamA, oddsA, teamB, oddsB, limit);
+	}
+
+	@Override
+	public void oddsChanged(String bookieID, int matchID, String team, float odds) {
+		for (MatchStoreListener listener : listeners)
+			listener.oddsChanged(bookieID, matchID, team, odds);
+	}
+
+	@Override
+	public void matchRemoved(String bookieID, int matchID) {
+		for (MatchStoreListener listener : listeners)
+			listener.matchRemoved(bookieID, matchID);
+	}
+
+}
@@ -0,0 +1,248 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import lu.uni.distributedsystems.project.common.OddsUpdate;
+import lu.uni.distributedsystems.project.common.OddsUpdateResult;
+
+/**
+ * Ingest stage for odds updates sent by bookies. Keeps at most one pending
+ * update per bookie, match and team: an update arriving while an older one
+ * for the same team is still pending replaces the older one ("latest wins").
+ * Pending updates are applied to the match store in batches by a separate
+ * thread, such that memory and CPU usage stay bounded even if bookies send
+ * updates faster than they can be applied.
+ * <p>
+ * Updates applied directly by <code>apply</code>, and updates discarded by
+ * <code>discard</code>, are ordered with respect to the batches applied by the
+ * conflator thread: an update submitted before is either applied before, or
+ * not at all, such that an older price never overwrites a newer one.
+ * <p>
+ * A conflator runs in the context of a separate (daemon) thread. Need to invoke
+ * the start method to launch applying pending updates.
+ */
+public class OddsConflator extends Thread {
+
+	// maximum number of updates applied to the match store at once
+	private static final int BATCH_SIZE = 256;
+
+	// the match store the updates are applied to
+	private MatchStore matchStore;
+
+	// latest pending update per bookie, match and team
+	private ConcurrentMap<OddsKey, OddsUpdate> pending = new ConcurrentHashMap<OddsKey, OddsUpdate>();
+
+	// keys of the pending updates, in order of their first arrival
+	private Queue<OddsKey> order = new ConcurrentLinkedQueue<OddsKey>();
+
+	// held while updates are taken from pending and applied, or discarded
+	private final Object applyLock = new Object();
+
+	// statistics
+	private LongAdder received = new LongAdder();
+	private LongAdder conflated = new LongAdder();
+	private LongAdder applied = new LongAdder();
+	private LongAdder rejected = new LongAdder();
+	private LongAdder batches = new LongAdder();
+
+	/**
+	 * Create a conflator applying odds updates to the given match store.
+	 *
+	 * @param matchStore the match store to apply odds updates to
+	 */
+	public OddsConflator(MatchStore matchStore) {
+		super("odds-conflator");
+		this.matchStore = matchStore;
+		setDaemon(true);
+	}
+
+	/**
+	 * Submits an odds update, replacing any pending update for the same
+	 * bookie, match and team.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id of the match
+	 * @param team     name of the team whose odds change
+	 * @param odds     the new odds
+	 */
+	public void submit(String bookieID, int matchID, String team, float odds) {
+		OddsKey key = new OddsKey(bookieID, matchID, team);
+		received.increment();
+
+		if (pending.put(key, new OddsUpdate(bookieID, matchID, team, odds)) != null) {
+			// an older update has been replaced; its key is still queued
+			conflated.increment();
+			return;
+		}
+		order.add(key);
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Applies the given updates to the match store right away, discarding the
+	 * pending updates they supersede. Waits for a batch being applied by the
+	 * conflator thread, since it holds older updates.
+	 *
+	 * @param updates updates to apply, in the given order
+	 * @return For each update, whether it has been applied.
+	 */
+	public OddsUpdateResult[] apply(OddsUpdate[] updates) {
+		synchronized (applyLock) {
+			for (OddsUpdate update : updates) {
+				if (pending.remove(new OddsKey(update.getBookieID(), update.getMatchID(), update.getTeam())) != null)
+					conflated.increment();
+			}
+			return matchStore.setOdds(updates);
+		}
+	}
+
+	/**
+	 * Discards the pending updates of a match, e.g. since it is ended, such
+	 * that they are not applied to a match created later on with the same id.
+	 * Waits for a batch being applied by the conflator thread.
+	 *
+	 * @param bookieID bookie-id of the bookie offering the match
+	 * @param matchID  match-id of the match
+	 */
+	public void discard(String bookieID, int matchID) {
+		synchronized (applyLock) {
+			pending.keySet().removeIf(key -> key.matchID == matchID && key.bookieID.equals(bookieID));
+		}
+	}
+
+	/**
+	 * Returns the number of odds updates submitted so far.
+	 *
+	 * @return The number of submitted updates.
+	 */
+	public long getReceived() {
+		return received.sum();
+	}
+
+	/**
+	 * Returns the number of odds updates that have been replaced by a more
+	 * recent update before being applied.
+	 *
+	 * @return The number of conflated updates.
+	 */
+	public long getConflated() {
+		return conflated.sum();
+	}
+
+	/**
+	 * Returns the number of odds updates applied to the match store.
+	 *
+	 * @return The number of applied updates.
+	 */
+	public long getApplied() {
+		return applied.sum();
+	}
+
+	/**
+	 * Returns the number of odds updates the match store rejected, because
+	 * of an unknown match or team.
+	 *
+	 * @return The number of rejected updates.
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Returns the number of batches applied to the match store.
+	 *
+	 * @return The number of batches.
+	 */
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	/**
+	 * Returns the number of updates currently waiting to be applied.
+	 *
+	 * @return The number of pending updates.
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Main loop, draining pending updates in batches.
+	 */
+	@Override
+	public void run() {
+		List<OddsUpdate> batch = new ArrayList<OddsUpdate>(BATCH_SIZE);
+
+		while (true) {
+			if (order.isEmpty()) {
+				// wait for the next update to be submitted
+				LockSupport.park(this);
+				continue;
+			}
+
+			synchronized (applyLock) {
+				OddsKey key;
+				while (batch.size() < BATCH_SIZE && (key = order.poll()) != null) {
+					// the update might have been superseded in the meantime
+					OddsUpdate update = pending.remove(key);
+					if (update != null)
+						batch.add(update);
+				}
+				if (batch.isEmpty())
+					continue;
+
+				for (OddsUpdateResult result : matchStore.setOdds(batch.toArray(new OddsUpdate[batch.size()]))) {
+					if (result == OddsUpdateResult.UPDATED_TEAM_A || result == OddsUpdateResult.UPDATED_TEAM_B)
+						applied.increment();
+					else
+						rejected.increment();
+				}
+			}
+			batches.increment();
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Identifies the odds of one team of a match offered by some bookie.
+	 */
+	private static final class OddsKey {
+
+		private final String bookieID;
+		private final int matchID;
+		private final String team;
+
+		OddsKey(String bookieID, int matchID, String team) {
+			this.bookieID = bookieID;
+			this.matchID = matchID;
+			this.team = team;
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * bookieID.hashCode() + matchID) * 31 + team.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+
+			if (!(obj instanceof OddsKey))
+				return false;
+
+			OddsKey other = (OddsKey) obj;
+
+			return matchID == other.matchID && bookieID.equals(other.bookieID) && team.equals(other.team);
+		}
+
+	}
+
+}
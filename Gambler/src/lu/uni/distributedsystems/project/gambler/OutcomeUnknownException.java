@@ -0,0 +1,16 @@
+package lu.uni.distributedsystems.project.gambler;
+
+/**
+ * Signals that it is unknown whether a bookie placed a bet: the call timed
+ * out, and the outcome could not be reconciled afterwards. The stake of such
+ * a bet must stay reserved, since the bookie might have placed it.
+ */
+public class OutcomeUnknownException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public OutcomeUnknownException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,176 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Filter, sort order and page of a query for matches or bets, as entered on
+ * the command line. Arguments are given as <code>key=value</code> pairs:
+ * <ul>
+ * <li><code>bookie=[bookie-id]</code> only matches/bets of the given bookie</li>
+ * <li><code>team=[team]</code> only matches/bets of the given team</li>
+ * <li><code>odds=[min]..[max]</code> only odds in the given range</li>
+ * <li><code>limit=[min]..[max]</code> only matches whose limit is in the given range</li>
+ * <li><code>stake=[min]..[max]</code> only bets whose stake is in the given range</li>
+ * <li><code>sort=[key]</code> sort order, e.g. odds, limit, stake or bookie</li>
+ * <li><code>page=[n]</code> number of the page to show, starting at 1</li>
+ * <li><code>size=[n]</code> number of rows per page</li>
+ * </ul>
+ * Either bound of a range may be omitted, e.g. <code>odds=2.5..</code>.
+ */
+public final class Query {
+
+	public static final int DEFAULT_PAGE_SIZE = 20;
+
+	private String bookieID;
+	private String team;
+	private float minOdds = Float.NEGATIVE_INFINITY;
+	private float maxOdds = Float.POSITIVE_INFINITY;
+	private int minAmount = Integer.MIN_VALUE;
+	private int maxAmount = Integer.MAX_VALUE;
+	private String sort;
+	private int page = 1;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+
+	/**
+	 * Parses the arguments of a query command.
+	 *
+	 * @param args        arguments given on the command line
+	 * @param amountKey   key of the amount range, i.e. limit or stake
+	 * @param defaultSort sort key used if none is given
+	 * @return The parsed query.
+	 * @throws IllegalArgumentException if an argument is malformed or unknown
+	 */
+	public static Query parse(String[] args, String amountKey, String defaultSort) {
+		Query query = new Query();
+		query.sort = defaultSort;
+
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator < 0)
+				throw new IllegalArgumentException("expected key=value: " + arg);
+
+			String key = arg.substring(0, separator);
+			String value = arg.substring(separator + 1);
+
+			if (key.equals("bookie"))
+				query.bookieID = value;
+			else if (key.equals("team"))
+				query.team = value;
+			else if (key.equals("odds")) {
+				String[] range = range(value);
+				if (!range[0].isEmpty())
+					query.minOdds = Float.parseFloat(range[0]);
+				if (!range[1].isEmpty())
+					query.maxOdds = Float.parseFloat(range[1]);
+			}
+			else if (key.equals(amountKey)) {
+				String[] range = range(value);
+				if (!range[0].isEmpty())
+					query.minAmount = Integer.parseInt(range[0]);
+				if (!range[1].isEmpty())
+					query.maxAmount = Integer.parseInt(range[1]);
+			}
+			else if (key.equals("sort"))
+				query.sort = value;
+			else if (key.equals("page"))
+				query.page = Math.max(1, Integer.parseInt(value));
+			else if (key.equals("size"))
+				query.pageSize = Math.max(1, Integer.parseInt(value));
+			else
+				throw new IllegalArgumentException("unknown argument: " + key);
+		}
+		return query;
+	}
+
+	// splits "min..max" into its bounds; a single value is taken as both bounds
+	private static String[] range(String value) {
+		int separator = value.indexOf("..");
+		if (separator < 0)
+			return new String[] { value, value };
+		return new String[] { value.substring(0, separator), value.substring(separator + 2) };
+	}
+
+	public String getBookieID() {
+		return bookieID;
+	}
+
+	public String getTeam() {
+		return team;
+	}
+
+	public float getMinOdds() {
+		return minOdds;
+	}
+
+	public float getMaxOdds() {
+		return maxOdds;
+	}
+
+	public boolean hasOddsRange() {
+		return minOdds != Float.NEGATIVE_INFINITY || maxOdds != Float.POSITIVE_INFINITY;
+	}
+
+	public String getSort() {
+		return sort;
+	}
+
+	public int getPage() {
+		return page;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	boolean matchesBookie(String bookieID) {
+		return this.bookieID == null || this.bookieID.equals(bookieID);
+	}
+
+	boolean matchesTeam(String team) {
+		return this.team == null || this.team.equals(team);
+	}
+
+	boolean matchesOdds(float odds) {
+		return odds >= minOdds && odds <= maxOdds;
+	}
+
+	boolean matchesAmount(int amount) {
+		return amount >= minAmount && amount <= maxAmount;
+	}
+
+	/**
+	 * Selects the requested page among the candidates accepted by the filter.
+	 * If the candidates are already iterated in the requested order, i.e. no
+	 * comparator is given, iteration stops as soon as the page is complete.
+	 * Otherwise, all accepted candidates are sorted first.
+	 *
+	 * @param candidates candidates to select from
+	 * @param filter     filter accepting the candidates to show
+	 * @param order      requested order, or null if the candidates are
+	 *                   already iterated in that order
+	 * @return The rows of the requested page, plus one more row if there are
+	 *         further pages.
+	 */
+	<T> List<T> select(Iterable<T> candidates, Predicate<T> filter, Comparator<T> order) {
+		int from = (page - 1) * pageSize;
+		int to = from + pageSize + 1;
+
+		List<T> rows = new ArrayList<T>();
+		for (T candidate : candidates) {
+			if (!filter.test(candidate))
+				continue;
+			rows.add(candidate);
+			if (order == null && rows.size() == to)
+				break;
+		}
+
+		if (order != null)
+			Collections.sort(rows, order);
+		return new ArrayList<T>(rows.subList(Math.min(from, rows.size()), Math.min(to, rows.size())));
+	}
+
+}
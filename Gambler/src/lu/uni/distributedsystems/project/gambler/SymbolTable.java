@@ -0,0 +1,91 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns names, such as team names or bookie-ids, as dense integer symbols.
+ * Each distinct name is stored only once, no matter how many matches refer
+ * to it.
+ * <p>
+ * Symbols are never released: a name stays interned after the last match
+ * referring to it has been removed, such that symbols remain stable. The
+ * table thus grows with the number of distinct names ever seen, i.e. of
+ * bookies and teams, which is small compared to the number of matches.
+ * <p>
+ * A symbol table is not thread-safe; callers need to synchronize access.
+ */
+class SymbolTable {
+
+	// symbol of each known name
+	private Map<String, Integer> symbols = new HashMap<String, Integer>();
+
+	// name of each symbol, indexed by symbol
+	private List<String> names = new ArrayList<String>();
+
+	/**
+	 * Returns the symbol of the given name, creating a new symbol if the
+	 * name is not known yet.
+	 *
+	 * @param name the name to intern
+	 * @return The symbol of the name.
+	 */
+	int intern(String name) {
+		Integer symbol = symbols.get(name);
+		if (symbol != null)
+			return symbol;
+
+		names.add(name);
+		symbols.put(name, names.size() - 1);
+		return names.size() - 1;
+	}
+
+	/**
+	 * Returns the symbol of the given name without creating a new symbol.
+	 *
+	 * @param name the name to look up
+	 * @return The symbol of the name, or -1 if the name is unknown.
+	 */
+	int lookup(String name) {
+		Integer symbol = symbols.get(name);
+		return symbol != null ? symbol : -1;
+	}
+
+	/**
+	 * Returns the name of the given symbol.
+	 *
+	 * @param symbol a symbol returned by intern
+	 * @return The name of the symbol.
+	 */
+	String name(int symbol) {
+		return names.get(symbol);
+	}
+
+	/**
+	 * Estimates the heap memory occupied by the names and the lookup table.
+	 *
+	 * @return Estimated heap usage in bytes.
+	 */
+	long estimateHeapBytes() {
+		long bytes = 0;
+		for (String name : names)
+			// string itself, hash map node, boxed symbol and list slot
+			bytes += estimateStringBytes(name) + 32 + 16 + 4;
+		return bytes;
+	}
+
+	/**
+	 * Estimates the heap memory occupied by a string, assuming compact
+	 * strings and compressed object pointers.
+	 *
+	 * @param s the string
+	 * @return Estimated heap usage in bytes.
+	 */
+	static long estimateStringBytes(String s) {
+		// String object plus its backing byte array, 8-byte aligned
+		return 24 + ((16 + s.length() + 7) & ~7);
+	}
+
+}
@@ -0,0 +1,121 @@
+package lu.uni.distributedsystems.project.gambler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free ledger of the gambler's money. Besides the money available for
+ * new bets, the wallet keeps track of the money reserved for bets that have
+ * been sent to a bookie, but not been answered yet. Reserving the stake of a
+ * bet before sending it ensures that concurrently placed bets never exceed
+ * the bankroll.
+ * <p>
+ * The available amount is updated via compare-and-set, such that neither
+ * the console thread nor the threads handling JSON-RPC requests need to
+ * acquire a lock.
+ */
+public class Wallet {
+
+	// money available for new bets
+	private AtomicLong available = new AtomicLong();
+
+	// money reserved for bets in flight
+	private LongAdder reserved = new LongAdder();
+
+	/**
+	 * Adds the given amount of money.
+	 *
+	 * @param amount amount of money to be added
+	 * @return The money available after the deposit.
+	 * @throws IllegalArgumentException if the amount is not positive
+	 */
+	public long deposit(long amount) {
+		if (amount <= 0)
+			throw new IllegalArgumentException("deposit must be positive: " + amount);
+		return available.addAndGet(amount);
+	}
+
+	/**
+	 * Deducts the given amount of money, provided there is enough money
+	 * available.
+	 *
+	 * @param amount amount of money to be deducted
+	 * @return true if the money has been deducted, false if the available
+	 *         money does not cover the amount
+	 * @throws IllegalArgumentException if the amount is not positive
+	 */
+	public boolean withdraw(long amount) {
+		if (amount <= 0)
+			throw new IllegalArgumentException("withdrawal must be positive: " + amount);
+		long current;
+		do {
+			current = available.get();
+			if (current < amount)
+				return false;
+		} while (!available.compareAndSet(current, current - amount));
+		return true;
+	}
+
+	/**
+	 * Reserves the stake of a bet about to be placed, provided there is
+	 * enough money available.
+	 *
+	 * @param stake the stake to reserve
+	 * @return true if the stake has been reserved, false if the available
+	 *         money does not cover the stake
+	 * @throws IllegalArgumentException if the stake is not positive
+	 */
+	public boolean reserve(long stake) {
+		if (stake <= 0)
+			throw new IllegalArgumentException("stake must be positive: " + stake);
+		long current;
+		do {
+			current = available.get();
+			if (current < stake)
+				return false;
+		} while (!available.compareAndSet(current, current - stake));
+
+		reserved.add(stake);
+		return true;
+	}
+
+	/**
+	 * Commits a reservation, i.e. the bet has been accepted and the stake
+	 * is spent.
+	 *
+	 * @param stake the stake reserved previously
+	 */
+	public void commit(long stake) {
+		reserved.add(-stake);
+	}
+
+	/**
+	 * Releases a reservation, i.e. the bet has not been accepted and the
+	 * stake is available again.
+	 *
+	 * @param stake the stake reserved previously
+	 */
+	public void release(long stake) {
+		available.addAndGet(stake);
+		reserved.add(-stake);
+	}
+
+	/**
+	 * Returns the money available for new bets.
+	 *
+	 * @return The available money.
+	 */
+	public long getAvailable() {
+		return available.get();
+	}
+
+	/**
+	 * Returns the money reserved for bets in flight.
+	 *
+	 * @return The reserved money.
+	 */
+	public long getReserved() {
+		return reserved.sum();
+	}
+
+}
@@ -0,0 +1,52 @@
+package lu.uni.distributedsystems.project.gambler.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lu.uni.distributedsystems.project.common.command.Command;
+import lu.uni.distributedsystems.project.common.command.CommandProcessor;
+import lu.uni.distributedsystems.project.gambler.Bet;
+import lu.uni.distributedsystems.project.gambler.Gambler;
+
+/**
+ * Implementation of the command bet_batch [bookie-id] [stake] [match-id] [team] [odds] ...
+ */
+public class BetBatchCommand extends Command {
+
+	private Gambler gambler;
+
+	public BetBatchCommand(CommandProcessor commandProcessor, Gambler gambler) {
+		super(commandProcessor, "bet_batch");
+		this.gambler = gambler;
+	}
+
+	@Override
+	public void process(String[] args) {
+		if (args.length < 5 || (args.length - 2) % 3 != 0) {
+			showHelp();
+			return;
+		}
+
+		// extract arguments
+		String bookieID = args[0];
+		int stake = Integer.parseInt(args[1]);
+
+		List<Bet> bets = new ArrayList<Bet>();
+		for (int i = 2; i < args.length; i += 3) {
+			int matchID = Integer.parseInt(args[i]);
+			String team = args[i + 1];
+			float odds = Float.parseFloat(args[i + 2]);
+			bets.add(new Bet(bookieID, matchID, team, stake, odds));
+		}
+
+		gambler.betBatch(bookieID, bets);
+	}
+
+	@Override
+	public void showHelp() {
+		System.out.println("bet_batch [bookie-id] [stake] [match-id] [team] [odds] [match-id] [team] [odds] ...");
+		System.out.println("    place several bets with some bookie in one go, each with the same stake");
+		System.out.println("    make sure decimal numbers are separated using a '.' and not ','");
+	}
+
+}
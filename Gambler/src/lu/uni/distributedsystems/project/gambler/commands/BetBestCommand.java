@@ -0,0 +1,35 @@
+package lu.uni.distributedsystems.project.gambler.commands;
+
+import lu.uni.distributedsystems.project.common.command.Command;
+import lu.uni.distributedsystems.project.common.command.CommandProcessor;
+import lu.uni.distributedsystems.project.gambler.Gambler;
+
+/**
+ * Implementation of the command bet_best [team] [stake]
+ */
+public class BetBestCommand extends Command {
+	
+	private Gambler gambler;
+
+	public BetBestCommand(CommandProcessor commandProcessor, Gambler gambler) {
+		super(commandProcessor, "bet_best");
+		this.gambler = gambler;
+	}
+
+	@Override
+	public void process(String[] args) {
+		// extract arguments
+		String team = args[0];
+		int stake = Integer.parseInt(args[1]);
+		
+		gambler.betBest(team, stake);
+	}
+
+	@Override
+	public void showHelp() {
+		System.out.println("bet_best [team] [stake]");
+		System.out.println("    place a bet with the bookie offering the highest odds for the team;");
+		System.out.println("    falls back to the next best bookie if the bet is rejected");
+	}
+
+}
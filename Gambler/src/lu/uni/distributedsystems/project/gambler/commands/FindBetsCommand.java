@@ -0,0 +1,32 @@
+package lu.uni.distributedsystems.project.gambler.commands;
+
+import lu.uni.distributedsystems.project.common.command.Command;
+import lu.uni.distributedsystems.project.common.command.CommandProcessor;
+import lu.uni.distributedsystems.project.gambler.Gambler;
+import lu.uni.distributedsystems.project.gambler.Query;
+
+/**
+ * Implementation of the command find_bets [key=value]...
+ */
+public class FindBetsCommand extends Command {
+	
+	private Gambler gambler;
+
+	public FindBetsCommand(CommandProcessor commandProcessor, Gambler gambler) {
+		super(commandProcessor, "find_bets");
+		this.gambler = gambler;
+	}
+
+	@Override
+	public void process(String[] args) {
+		gambler.findBets(Query.parse(args, "stake", "stake"));
+	}
+
+	@Override
+	public void showHelp() {
+		System.out.println("find_bets [bookie=..] [team=..] [odds=min..max] [stake=min..max]");
+		System.out.println("    [sort=stake|odds|bookie] [page=..] [size=..]");
+		System.out.println("    show one page of the bets placed, highest stake first unless sorted otherwise");
+	}
+
+}
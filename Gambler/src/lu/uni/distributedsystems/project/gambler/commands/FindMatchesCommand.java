@@ -0,0 +1,33 @@
+package lu.uni.distributedsystems.project.gambler.commands;
+
+import lu.uni.distributedsystems.project.common.command.Command;
+import lu.uni.distributedsystems.project.common.command.CommandProcessor;
+import lu.uni.distributedsystems.project.gambler.Gambler;
+import lu.uni.distributedsystems.project.gambler.Query;
+
+/**
+ * Implementation of the command find_matches [key=value]...
+ */
+public class FindMatchesCommand extends Command {
+	
+	private Gambler gambler;
+
+	public FindMatchesCommand(CommandProcessor commandProcessor, Gambler gambler) {
+		super(commandProcessor, "find_matches");
+		this.gambler = gambler;
+	}
+
+	@Override
+	public void process(String[] args) {
+		gambler.findMatches(Query.parse(args, "limit", "odds"));
+	}
+
+	@Override
+	public void showHelp() {
+		System.out.println("find_matches [bookie=..] [team=..] [odds=min..max] [limit=min..max]");
+		System.out.println("    [sort=odds|limit|bookie] [page=..] [size=..]");
+		System.out.println("    show one page of the odds offered for the teams of all open matches,");
+		System.out.println("    highest odds first unless sorted otherwise");
+	}
+
+}
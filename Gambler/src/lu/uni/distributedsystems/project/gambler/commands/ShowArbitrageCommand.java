@@ -0,0 +1,30 @@
+package lu.uni.distributedsystems.project.gambler.commands;
+
+import lu.uni.distributedsystems.project.common.command.Command;
+import lu.uni.distributedsystems.project.common.command.CommandProcessor;
+import lu.uni.distributedsystems.project.gambler.Gambler;
+
+/**
+ * Implementation of the show_arbitrage command.
+ */
+public class ShowArbitrageCommand extends Command {
+	
+	private Gambler gambler;
+
+	public ShowArbitrageCommand(CommandProcessor commandProcessor, Gambler gambler) {
+		super(commandProcessor, "show_arbitrage");
+		this.gambler = gambler;
+	}
+
+	@Override
+	public void process(String[] args) {
+		gambler.showArbitrage();
+	}
+
+	@Override
+	public void showHelp() {
+		System.out.println("show_arbitrage : show all combinations of bets on both teams of a match with");
+		System.out.println("    different bookies yielding a guaranteed profit");
+	}
+
+}
@@ -0,0 +1,30 @@
+package lu.uni.distributedsystems.project.gambler.commands;
+
+import lu.uni.distributedsystems.project.common.command.Command;
+import lu.uni.distributedsystems.project.common.command.CommandProcessor;
+import lu.uni.distributedsystems.project.gambler.Gambler;
+
+/**
+ * Implementation of the show_match_store command.
+ */
+public class ShowMatchStoreCommand extends Command {
+	
+	private Gambler gambler;
+
+	public ShowMatchStoreCommand(CommandProcessor commandProcessor, Gambler gambler) {
+		super(commandProcessor, "show_match_store");
+		this.gambler = gambler;
+	}
+
+	@Override
+	public void process(String[] args) {
+		gambler.showMatchStore();
+	}
+
+	@Override
+	public void showHelp() {
+		System.out.println("show_match_store : show the number of known matches and the");
+		System.out.println("    estimated heap usage of the store holding them");
+	}
+
+}
@@ -0,0 +1,30 @@
+package lu.uni.distributedsystems.project.gambler.commands;
+
+import lu.uni.distributedsystems.project.common.command.Command;
+import lu.uni.distributedsystems.project.common.command.CommandProcessor;
+import lu.uni.distributedsystems.project.gambler.Gambler;
+
+/**
+ * Implementation of the show_odds_ingest command.
+ */
+public class ShowOddsIngestCommand extends Command {
+	
+	private Gambler gambler;
+
+	public ShowOddsIngestCommand(CommandProcessor commandProcessor, Gambler gambler) {
+		super(commandProcessor, "show_odds_ingest");
+		this.gambler = gambler;
+	}
+
+	@Override
+	public void process(String[] args) {
+		gambler.showOddsIngest();
+	}
+
+	@Override
+	public void showHelp() {
+		System.out.println("show_odds_ingest : show how many odds updates have been received,");
+		System.out.println("    conflated, applied and rejected");
+	}
+
+}
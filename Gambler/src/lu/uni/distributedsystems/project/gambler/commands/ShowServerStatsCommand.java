@@ -0,0 +1,30 @@
+package lu.uni.distributedsystems.project.gambler.commands;
+
+import lu.uni.distributedsystems.project.common.command.Command;
+import lu.uni.distributedsystems.project.common.command.CommandProcessor;
+import lu.uni.distributedsystems.project.gambler.Gambler;
+
+/**
+ * Implementation of the show_server_stats command.
+ */
+public class ShowServerStatsCommand extends Command {
+	
+	private Gambler gambler;
+
+	public ShowServerStatsCommand(CommandProcessor commandProcessor, Gambler gambler) {
+		super(commandProcessor, "show_server_stats");
+		this.gambler = gambler;
+	}
+
+	@Override
+	public void process(String[] args) {
+		gambler.showServerStats();
+	}
+
+	@Override
+	public void showHelp() {
+		System.out.println("show_server_stats : show the number of connections and requests being served by");
+		System.out.println("    the gambler's JSON-RPC server, along with their limits and rejections");
+	}
+
+}